@@ -7,8 +7,11 @@ import hudson.util.ListBoxModel;
 import hudson.util.FormValidation;
 
 import com.ziqni.jenkins.plugins.rabbit.consumer.Messages;
+import com.ziqni.jenkins.plugins.rabbit.consumer.ExchangeRateLimit;
 import com.ziqni.jenkins.plugins.rabbit.consumer.RabbitManager;
 import com.ziqni.jenkins.plugins.rabbit.consumer.RabbitMqConsumeItem;
+import com.ziqni.jenkins.plugins.rabbit.consumer.channels.PublishChannelPool;
+import com.ziqni.jenkins.plugins.rabbit.consumer.channels.PublishRMQChannel;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import jenkins.model.GlobalConfiguration;
@@ -58,9 +61,17 @@ public class RabbitConfiguration extends GlobalConfiguration {
     private String serviceUri;
     private boolean enableDebug;
     private String credentialsId;
+    private String agentCredentialsId;
     private boolean enableConsumer;
     private List<RabbitMqConsumeItem> consumeItems;
     private long watchdogPeriod = ReconnectTimer.DEFAULT_RECCURENCE_TIME;
+    private boolean publisherConfirms = true;
+    private int publisherConfirmWindow = PublishRMQChannel.DEFAULT_CONFIRM_WINDOW;
+    private int publishChannelCount = PublishChannelPool.DEFAULT_CHANNEL_COUNT;
+    private int bulkLaneMessagesPerSecond = PublishRMQChannel.DEFAULT_BULK_MESSAGES_PER_SECOND;
+    private long publishMessagesPerSecond;
+    private long publishBytesPerSecond;
+    private List<ExchangeRateLimit> exchangeRateLimits;
 
     public RabbitConfiguration() {
         load();
@@ -98,6 +109,9 @@ public class RabbitConfiguration extends GlobalConfiguration {
         if (consumeItems != null) {
             consumeItems.clear();
         }
+        if (exchangeRateLimits != null) {
+            exchangeRateLimits.clear();
+        }
         req.bindJSON(this, json);
 
         ReconnectTimer timer = ReconnectTimer.get();
@@ -271,6 +285,56 @@ public class RabbitConfiguration extends GlobalConfiguration {
         );
     }
 
+    /**
+     * Gets the value of agentCredentialsId.
+     *
+     * @return the value of agentCredentialsId.
+     */
+    public String getAgentCredentialsId() {
+        return agentCredentialsId;
+    }
+
+    /**
+     * Sets the agentCredentialsId.
+     *
+     * @param agentCredentialsId
+     *            the value to set.
+     */
+    @DataBoundSetter
+    public void setAgentCredentialsId(String agentCredentialsId) {
+        this.agentCredentialsId = StringUtils.stripToNull(agentCredentialsId);
+        save();
+    }
+
+    /**
+     * Gets the credentials agents publish with.
+     * These are sent to agents, so the credentials of the controller are never returned.
+     *
+     * @return the credentials, or null if none or the same as the controller's are configured.
+     */
+    public StandardUsernamePasswordCredentials getAgentCredentials() {
+        if (agentCredentialsId == null) {
+            return null;
+        }
+        if (agentCredentialsId.equals(credentialsId)) {
+            LOGGER.warning("Agent credentials are the same as the controller's, they are not sent to agents.");
+            return null;
+        }
+        return getCredentials(agentCredentialsId);
+    }
+
+    /**
+     * Fills the agentCredentialsId field with a list of credentials.
+     *
+     * @return the list of credentials.
+     */
+    public ListBoxModel doFillAgentCredentialsIdItems() {
+        ListBoxModel items = new ListBoxModel();
+        items.add("- none -", "");
+        items.addAll(doFillCredentialsIdItems());
+        return items;
+    }
+
     /**
      * Gets the value of watchdogPeriod.
      *
@@ -292,6 +356,154 @@ public class RabbitConfiguration extends GlobalConfiguration {
         save();
     }
 
+    /**
+     * Gets whether publishes wait for the broker to confirm them.
+     *
+     * @return true if publisher confirms are enabled.
+     */
+    public boolean isPublisherConfirms() {
+        return publisherConfirms;
+    }
+
+    /**
+     * Sets whether publishes wait for the broker to confirm them.
+     * This applies to publish channels opened afterwards.
+     *
+     * @param publisherConfirms
+     *            the value to set.
+     */
+    @DataBoundSetter
+    public void setPublisherConfirms(boolean publisherConfirms) {
+        this.publisherConfirms = publisherConfirms;
+        save();
+    }
+
+    /**
+     * Gets the maximum number of publishes waiting for a confirm.
+     *
+     * @return the value of publisherConfirmWindow.
+     */
+    public int getPublisherConfirmWindow() {
+        return publisherConfirmWindow;
+    }
+
+    /**
+     * Sets the maximum number of publishes waiting for a confirm.
+     *
+     * @param publisherConfirmWindow
+     *            the value to set.
+     */
+    @DataBoundSetter
+    public void setPublisherConfirmWindow(int publisherConfirmWindow) {
+        this.publisherConfirmWindow = publisherConfirmWindow;
+        save();
+    }
+
+    /**
+     * Gets the number of channels messages are published on.
+     *
+     * @return the value of publishChannelCount.
+     */
+    public int getPublishChannelCount() {
+        return publishChannelCount;
+    }
+
+    /**
+     * Sets the number of channels messages are published on.
+     *
+     * @param publishChannelCount
+     *            the value to set.
+     */
+    @DataBoundSetter
+    public void setPublishChannelCount(int publishChannelCount) {
+        this.publishChannelCount = publishChannelCount;
+        save();
+    }
+
+    /**
+     * Gets the maximum number of bulk messages per second and channel.
+     *
+     * @return the value of bulkLaneMessagesPerSecond.
+     */
+    public int getBulkLaneMessagesPerSecond() {
+        return bulkLaneMessagesPerSecond;
+    }
+
+    /**
+     * Sets the maximum number of bulk messages per second and channel.
+     *
+     * @param bulkLaneMessagesPerSecond
+     *            the value to set, 0 if unbounded.
+     */
+    @DataBoundSetter
+    public void setBulkLaneMessagesPerSecond(int bulkLaneMessagesPerSecond) {
+        this.bulkLaneMessagesPerSecond = bulkLaneMessagesPerSecond;
+        save();
+    }
+
+    /**
+     * Gets the global maximum number of messages published per second.
+     *
+     * @return the value of publishMessagesPerSecond.
+     */
+    public long getPublishMessagesPerSecond() {
+        return publishMessagesPerSecond;
+    }
+
+    /**
+     * Sets the global maximum number of messages published per second.
+     *
+     * @param publishMessagesPerSecond
+     *            the value to set, 0 if unbounded.
+     */
+    @DataBoundSetter
+    public void setPublishMessagesPerSecond(long publishMessagesPerSecond) {
+        this.publishMessagesPerSecond = publishMessagesPerSecond;
+        save();
+    }
+
+    /**
+     * Gets the global maximum number of body bytes published per second.
+     *
+     * @return the value of publishBytesPerSecond.
+     */
+    public long getPublishBytesPerSecond() {
+        return publishBytesPerSecond;
+    }
+
+    /**
+     * Sets the global maximum number of body bytes published per second.
+     *
+     * @param publishBytesPerSecond
+     *            the value to set, 0 if unbounded.
+     */
+    @DataBoundSetter
+    public void setPublishBytesPerSecond(long publishBytesPerSecond) {
+        this.publishBytesPerSecond = publishBytesPerSecond;
+        save();
+    }
+
+    /**
+     * Gets the publish rate limits per exchange.
+     *
+     * @return the value of exchangeRateLimits.
+     */
+    public List<ExchangeRateLimit> getExchangeRateLimits() {
+        return exchangeRateLimits;
+    }
+
+    /**
+     * Sets the publish rate limits per exchange.
+     *
+     * @param exchangeRateLimits
+     *            the value to set.
+     */
+    @DataBoundSetter
+    public void setExchangeRateLimits(List<ExchangeRateLimit> exchangeRateLimits) {
+        this.exchangeRateLimits = exchangeRateLimits;
+        save();
+    }
+
     /**
      * Gets the value of consumeItems.
      *
@@ -440,7 +652,15 @@ public class RabbitConfiguration extends GlobalConfiguration {
                 "enableConsumer=" + enableConsumer +
                 ", serviceUri='" + serviceUri + '\'' +
                 ", credentialsId='" + credentialsId + '\'' +
+                ", agentCredentialsId='" + agentCredentialsId + '\'' +
                 ", watchdogPeriod=" + watchdogPeriod +
+                ", publisherConfirms=" + publisherConfirms +
+                ", publisherConfirmWindow=" + publisherConfirmWindow +
+                ", publishChannelCount=" + publishChannelCount +
+                ", bulkLaneMessagesPerSecond=" + bulkLaneMessagesPerSecond +
+                ", publishMessagesPerSecond=" + publishMessagesPerSecond +
+                ", publishBytesPerSecond=" + publishBytesPerSecond +
+                ", exchangeRateLimits=" + exchangeRateLimits +
                 ", consumeItems=" + consumeItems +
                 ", enableDebug=" + enableDebug +
                 ", label='" + label + '\'' +
@@ -452,11 +672,11 @@ public class RabbitConfiguration extends GlobalConfiguration {
         if (this == o) return true;
         if (!(o instanceof RabbitConfiguration)) return false;
         RabbitConfiguration that = (RabbitConfiguration) o;
-        return isEnableConsumer() == that.isEnableConsumer() && getWatchdogPeriod() == that.getWatchdogPeriod() && isEnableDebug() == that.isEnableDebug() && Objects.equals(getServiceUri(), that.getServiceUri()) && Objects.equals(getCredentialsId(), that.getCredentialsId()) && Objects.equals(getConsumeItems(), that.getConsumeItems()) && Objects.equals(getLabel(), that.getLabel());
+        return isEnableConsumer() == that.isEnableConsumer() && getWatchdogPeriod() == that.getWatchdogPeriod() && isEnableDebug() == that.isEnableDebug() && isPublisherConfirms() == that.isPublisherConfirms() && getPublisherConfirmWindow() == that.getPublisherConfirmWindow() && getPublishChannelCount() == that.getPublishChannelCount() && getBulkLaneMessagesPerSecond() == that.getBulkLaneMessagesPerSecond() && getPublishMessagesPerSecond() == that.getPublishMessagesPerSecond() && getPublishBytesPerSecond() == that.getPublishBytesPerSecond() && Objects.equals(getExchangeRateLimits(), that.getExchangeRateLimits()) && Objects.equals(getServiceUri(), that.getServiceUri()) && Objects.equals(getCredentialsId(), that.getCredentialsId()) && Objects.equals(getAgentCredentialsId(), that.getAgentCredentialsId()) && Objects.equals(getConsumeItems(), that.getConsumeItems()) && Objects.equals(getLabel(), that.getLabel());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(isEnableConsumer(), getServiceUri(), getCredentialsId(), getWatchdogPeriod(), getConsumeItems(), isEnableDebug(), getLabel());
+        return Objects.hash(isEnableConsumer(), getServiceUri(), getCredentialsId(), getAgentCredentialsId(), getWatchdogPeriod(), getConsumeItems(), isEnableDebug(), isPublisherConfirms(), getPublisherConfirmWindow(), getPublishChannelCount(), getBulkLaneMessagesPerSecond(), getPublishMessagesPerSecond(), getPublishBytesPerSecond(), getExchangeRateLimits(), getLabel());
     }
 }
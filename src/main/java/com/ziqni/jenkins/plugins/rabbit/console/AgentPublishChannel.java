@@ -0,0 +1,322 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.ziqni.jenkins.plugins.rabbit.consumer.listeners.RMQChannelListener;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.ExchangeType;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.OutboundMessage;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishChannel;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishResult;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import static com.ziqni.jenkins.plugins.rabbit.trigger.RabbitBuildPublisher.LOG_HEADER;
+
+/**
+ * Publish-only channel that lives in the agent JVM.
+ *
+ * It owns its own connection to the broker, so console lines of builds on this agent
+ * never travel through the controller. One instance is shared by all builds that use
+ * the same broker and user. Reconnects are attempted in the background, at most once
+ * per interval, so callers never wait for the broker.
+ *
+ * Builds hold a reference while they run. The connection is closed once no build used it
+ * for a while, or at once when the agent is disconnected from the controller.
+ * Exchanges are never declared from an agent.
+ */
+final class AgentPublishChannel implements PublishChannel {
+
+    private static final Logger LOGGER = Logger.getLogger(AgentPublishChannel.class.getName());
+
+    /**
+     * Minimum time between two connection attempts.
+     */
+    static final long RECONNECT_INTERVAL_MILLIS = 5000;
+
+    /**
+     * Time an unused channel is kept open for the next build.
+     */
+    static final long IDLE_CLOSE_MILLIS = 60000;
+
+    private static final int TIMEOUT_CONNECTION_MILLIS = 30000;
+
+    // Guarded by itself, along with the references of every channel.
+    private static final Map<String, AgentPublishChannel> CHANNELS = new HashMap<>();
+
+    private static final Set<hudson.remoting.Channel> WATCHED = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private final String key;
+    private final String serviceUri;
+    private final String userName;
+    private volatile Supplier<String> password;
+    // Channels are not safe for concurrent publishes, so all publishes and connects go through one thread.
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "RabbitAgentPublisher");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean connecting = new AtomicBoolean(false);
+
+    // Only touched on the executor thread
+    private Connection connection;
+    private volatile Channel channel;
+    private volatile long lastAttempt = 0;
+
+    // Guarded by CHANNELS
+    private int references;
+    private ScheduledFuture<?> idleClose;
+    private boolean closed;
+
+    private AgentPublishChannel(String key, String serviceUri, String userName) {
+        this.key = key;
+        this.serviceUri = serviceUri;
+        this.userName = userName;
+    }
+
+    /**
+     * Gets the channel of broker and user, creating it on first use.
+     * The caller must {@link #release()} it once done.
+     *
+     * @param serviceUri the broker URI.
+     * @param userName the user name.
+     * @param password the supplier of the password, only called to connect.
+     * @return the channel.
+     */
+    static AgentPublishChannel get(String serviceUri, String userName, Supplier<String> password) {
+        String key = userName + "@" + serviceUri;
+        synchronized (CHANNELS) {
+            AgentPublishChannel ch = CHANNELS.computeIfAbsent(key, k -> new AgentPublishChannel(k, serviceUri, userName));
+            ch.references++;
+            if (ch.idleClose != null) {
+                ch.idleClose.cancel(false);
+                ch.idleClose = null;
+            }
+            // The supplier of the latest build is used, earlier ones may be gone with their build.
+            ch.password = password;
+            return ch;
+        }
+    }
+
+    /**
+     * Releases a reference taken by {@link #get}.
+     * The channel is closed once it stayed unused for {@link #IDLE_CLOSE_MILLIS}.
+     */
+    void release() {
+        synchronized (CHANNELS) {
+            if (closed || --references > 0) {
+                return;
+            }
+            idleClose = RabbitConsoleLineLogger.scheduler().schedule(this::closeIfIdle, IDLE_CLOSE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void closeIfIdle() {
+        synchronized (CHANNELS) {
+            if (references > 0 || closed) {
+                return;
+            }
+            remove();
+        }
+        LOGGER.fine(LOG_HEADER + "Closed idle agent connection to " + serviceUri + ".");
+    }
+
+    /**
+     * Closes every channel once the agent is disconnected from the controller.
+     * Builds are gone along with the controller, and the credentials may change meanwhile.
+     *
+     * @param controller the channel to the controller.
+     */
+    static void closeOnDisconnect(hudson.remoting.Channel controller) {
+        synchronized (WATCHED) {
+            if (!WATCHED.add(controller)) {
+                return;
+            }
+        }
+        controller.addListener(new hudson.remoting.Channel.Listener() {
+            @Override
+            public void onClosed(hudson.remoting.Channel c, IOException cause) {
+                synchronized (CHANNELS) {
+                    for (AgentPublishChannel ch : new ArrayList<>(CHANNELS.values())) {
+                        ch.remove();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the channel from the shared ones, then closes its connection and thread.
+     * Must be called while holding the lock of CHANNELS.
+     */
+    private void remove() {
+        closed = true;
+        CHANNELS.remove(key, this);
+        if (idleClose != null) {
+            idleClose.cancel(false);
+            idleClose = null;
+        }
+        try {
+            executor.execute(this::closeConnection);
+        } catch (RejectedExecutionException e) {
+            // Already shut down
+        }
+        executor.shutdown();
+    }
+
+    @Override
+    public CompletableFuture<PublishResult> publish(String exchangeName, String routingKey, AMQP.BasicProperties props, byte[] body) {
+        try {
+            return CompletableFuture.supplyAsync(() -> basicPublish(exchangeName, routingKey, props, body), executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(new PublishResult(false, "Channel is closed.", exchangeName));
+        }
+    }
+
+    @Override
+    public Future<List<PublishResult>> publishAll(List<OutboundMessage> messages) {
+        try {
+            return executor.submit(() -> {
+                List<PublishResult> results = new ArrayList<>(messages.size());
+                for (OutboundMessage m : messages) {
+                    results.add(basicPublish(m.getExchangeName(), m.getRoutingKey(), m.getProps(), m.getBody()));
+                }
+                return results;
+            });
+        } catch (RejectedExecutionException e) {
+            List<PublishResult> results = new ArrayList<>(messages.size());
+            for (OutboundMessage m : messages) {
+                results.add(new PublishResult(false, "Channel is closed.", m.getExchangeName()));
+            }
+            return CompletableFuture.completedFuture(results);
+        }
+    }
+
+    private PublishResult basicPublish(String exchangeName, String routingKey, AMQP.BasicProperties props, byte[] body) {
+        Channel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            return new PublishResult(false, "Channel is not open.", exchangeName);
+        }
+        try {
+            ch.basicPublish(exchangeName, routingKey, props, body);
+            return new PublishResult(true, "Published.", exchangeName);
+        } catch (IOException | RuntimeException e) {
+            return new PublishResult(false, e.getMessage(), exchangeName);
+        }
+    }
+
+    /**
+     * Gets whether the channel is open.
+     * If not, a reconnect is started in the background, the caller does not wait for it.
+     *
+     * @return true if open.
+     */
+    @Override
+    public boolean isOpen() {
+        Channel ch = channel;
+        if (ch != null && ch.isOpen()) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastAttempt >= RECONNECT_INTERVAL_MILLIS && connecting.compareAndSet(false, true)) {
+            lastAttempt = now;
+            try {
+                executor.execute(() -> {
+                    try {
+                        connect();
+                    } finally {
+                        connecting.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                connecting.set(false);
+            }
+        }
+        return false;
+    }
+
+    private void connect() {
+        Channel ch = channel;
+        if (ch != null && ch.isOpen()) {
+            return;
+        }
+        closeConnection();
+        try {
+            ConnectionFactory factory = new ConnectionFactory();
+            factory.setConnectionTimeout(TIMEOUT_CONNECTION_MILLIS);
+            factory.setUri(serviceUri);
+            if (StringUtils.isNotEmpty(userName)) {
+                factory.setUsername(userName);
+            }
+            String pw = password.get();
+            if (StringUtils.isNotEmpty(pw)) {
+                factory.setPassword(pw);
+            }
+            connection = factory.newConnection();
+            channel = connection.createChannel();
+        } catch (Exception e) {
+            LOGGER.warning(LOG_HEADER + "Cannot open agent connection to " + serviceUri + ": " + e.getMessage());
+            closeConnection();
+        }
+    }
+
+    private void closeConnection() {
+        channel = null;
+        if (connection != null) {
+            try {
+                connection.abort();
+            } finally {
+                connection = null;
+            }
+        }
+    }
+
+    /**
+     * Exchanges are never declared from an agent.
+     *
+     * @return an unsuccessful result.
+     */
+    @Override
+    public PublishResult setupExchange(String exchangeName, String queueName) {
+        return new PublishResult(false, "Exchanges are not set up from an agent.", exchangeName);
+    }
+
+    /**
+     * Exchanges are never declared from an agent.
+     *
+     * @return an unsuccessful result.
+     */
+    @Override
+    public PublishResult setupExchange(String exchangeName, String queueName, ExchangeType type, String routingKey) {
+        return new PublishResult(false, "Exchanges are not set up from an agent.", exchangeName);
+    }
+
+    @Override
+    public void addListener(RMQChannelListener listener) {
+        // Nothing to notify, the channel is not managed by RabbitManager.
+    }
+
+    @Override
+    public void removeListener(RMQChannelListener listener) {
+        // Nothing to notify, the channel is not managed by RabbitManager.
+    }
+}
@@ -0,0 +1,115 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Multi-pattern byte matcher based on the Aho-Corasick automaton.
+ *
+ * Every pattern carries a bit mask. The automaton is compiled into a full transition table,
+ * so a line is scanned once, one table lookup per byte, and the result is the union of
+ * the masks of all patterns found in it.
+ */
+final class AhoCorasickMatcher {
+
+    private static final int ALPHABET = 256;
+
+    private final int[][] transitions;
+    private final int[] outputs;
+    private final int allMask;
+
+    /**
+     * Creates instance with specified patterns.
+     *
+     * @param patterns the patterns in raw bytes. Empty patterns are ignored.
+     * @param masks the mask of each pattern.
+     */
+    AhoCorasickMatcher(List<byte[]> patterns, int[] masks) {
+        List<int[]> gotos = new ArrayList<>();
+        List<Integer> outs = new ArrayList<>();
+        gotos.add(newState());
+        outs.add(0);
+
+        int all = 0;
+        for (int p = 0; p < patterns.size(); p++) {
+            byte[] pattern = patterns.get(p);
+            if (pattern.length == 0) {
+                continue;
+            }
+            int state = 0;
+            for (byte value : pattern) {
+                int c = value & 0xff;
+                if (gotos.get(state)[c] < 0) {
+                    gotos.get(state)[c] = gotos.size();
+                    gotos.add(newState());
+                    outs.add(0);
+                }
+                state = gotos.get(state)[c];
+            }
+            outs.set(state, outs.get(state) | masks[p]);
+            all |= masks[p];
+        }
+
+        this.transitions = gotos.toArray(new int[0][]);
+        this.outputs = new int[outs.size()];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = outs.get(i);
+        }
+        this.allMask = all;
+
+        // Breadth-first: resolve failure links into direct transitions and merge outputs.
+        int[] fail = new int[transitions.length];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ALPHABET; c++) {
+            int next = transitions[0][c];
+            if (next < 0) {
+                transitions[0][c] = 0;
+            } else {
+                fail[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            outputs[state] |= outputs[fail[state]];
+            for (int c = 0; c < ALPHABET; c++) {
+                int next = transitions[state][c];
+                if (next < 0) {
+                    transitions[state][c] = transitions[fail[state]][c];
+                } else {
+                    fail[next] = transitions[fail[state]][c];
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    private static int[] newState() {
+        int[] state = new int[ALPHABET];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    /**
+     * Scans the first len bytes of line.
+     *
+     * @param line the raw line.
+     * @param len the number of valid bytes.
+     * @return the union of masks of all patterns found.
+     */
+    int scan(byte[] line, int len) {
+        int found = 0;
+        int state = 0;
+        for (int i = 0; i < len; i++) {
+            state = transitions[state][line[i] & 0xff];
+            found |= outputs[state];
+            if (found == allMask) {
+                break;
+            }
+        }
+        return found;
+    }
+}
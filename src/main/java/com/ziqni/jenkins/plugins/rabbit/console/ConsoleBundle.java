@@ -0,0 +1,178 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bundle of console lines waiting to be published as one AMQP message.
+ *
+ * The bundle is due for flushing as soon as one of its limits is reached:
+ * the number of lines, the number of bytes or the time since the first line was added.
+ * An identical line repeated right after itself can be counted instead of added again,
+ * it is then published once with the number of repeats appended.
+ * This class is not thread-safe, {@link RabbitConsoleLineLogger} only uses it while holding its bundle lock.
+ */
+class ConsoleBundle {
+
+    /**
+     * Default maximum number of lines in a bundle.
+     */
+    static final int DEFAULT_MAX_LINES = 500;
+
+    /**
+     * Default maximum number of bytes in a bundle.
+     */
+    static final long DEFAULT_MAX_BYTES = 256 * 1024;
+
+    /**
+     * Default maximum time in millis a line waits in a bundle.
+     */
+    static final long DEFAULT_MAX_LINGER_MILLIS = 2000;
+
+    private final int maxLines;
+    private final long maxBytes;
+    private final long maxLingerMillis;
+
+    private final List<String> lines = new ArrayList<>();
+    private int[] lineNumbers = new int[16];
+    private int[] repeats = new int[16];
+    private long bytes = 0;
+    private long firstLineAt = 0;
+
+    /**
+     * Creates instance with specified limits.
+     *
+     * @param maxLines the maximum number of lines.
+     * @param maxBytes the maximum number of bytes.
+     * @param maxLingerMillis the maximum time in millis.
+     */
+    ConsoleBundle(int maxLines, long maxBytes, long maxLingerMillis) {
+        this.maxLines = maxLines > 0 ? maxLines : DEFAULT_MAX_LINES;
+        this.maxBytes = maxBytes > 0 ? maxBytes : DEFAULT_MAX_BYTES;
+        this.maxLingerMillis = maxLingerMillis > 0 ? maxLingerMillis : DEFAULT_MAX_LINGER_MILLIS;
+    }
+
+    /**
+     * Adds line.
+     *
+     * @param line the line.
+     * @param size the size of line in bytes.
+     * @param lineNumber the line number in the console.
+     * @return true if the bundle was empty before this line.
+     */
+    boolean add(String line, int size, int lineNumber) {
+        boolean first = lines.isEmpty();
+        if (first) {
+            firstLineAt = System.currentTimeMillis();
+        }
+        if (lines.size() == lineNumbers.length) {
+            lineNumbers = Arrays.copyOf(lineNumbers, lineNumbers.length * 2);
+            repeats = Arrays.copyOf(repeats, repeats.length * 2);
+        }
+        lineNumbers[lines.size()] = lineNumber;
+        repeats[lines.size()] = 0;
+        lines.add(line);
+        bytes += size;
+        return first;
+    }
+
+    /**
+     * Counts line as repeat of the last line if both are equal.
+     *
+     * @param line the line.
+     * @return true if counted, false if line has to be added.
+     */
+    boolean repeatLast(String line) {
+        int last = lines.size() - 1;
+        if (last < 0 || !lines.get(last).equals(line)) {
+            return false;
+        }
+        repeats[last]++;
+        return true;
+    }
+
+    boolean isEmpty() {
+        return lines.isEmpty();
+    }
+
+    int size() {
+        return lines.size();
+    }
+
+    /**
+     * Gets line as published, with the number of repeats appended if it was repeated.
+     *
+     * @param index the index.
+     * @return the line.
+     */
+    String getLine(int index) {
+        String line = lines.get(index);
+        return repeats[index] == 0 ? line : line + " [repeated " + repeats[index] + " more times]";
+    }
+
+    int getLineNumber(int index) {
+        return lineNumbers[index];
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    long getMaxLingerMillis() {
+        return maxLingerMillis;
+    }
+
+    /**
+     * Gets whether the line count or size limit is reached.
+     *
+     * @return true if so.
+     */
+    boolean isFull() {
+        return lines.size() >= maxLines || bytes >= maxBytes;
+    }
+
+    /**
+     * Gets whether the oldest line has waited long enough.
+     *
+     * @return true if so.
+     */
+    boolean isLingerExpired() {
+        return !lines.isEmpty() && System.currentTimeMillis() - firstLineAt >= maxLingerMillis;
+    }
+
+    /**
+     * Joins all lines then clears this bundle.
+     *
+     * @return the joined lines.
+     */
+    String drain() {
+        return drainText().toString();
+    }
+
+    /**
+     * Joins all lines then clears this bundle, without copying them into a {@link String}.
+     *
+     * @return the joined lines.
+     */
+    StringBuilder drainText() {
+        StringBuilder joined = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, bytes + lines.size()));
+        for (int i = 0; i < lines.size(); i++) {
+            if (i > 0) {
+                joined.append('\n');
+            }
+            joined.append(getLine(i));
+        }
+        clear();
+        return joined;
+    }
+
+    /**
+     * Clears this bundle.
+     */
+    void clear() {
+        lines.clear();
+        bytes = 0;
+        firstLineAt = 0;
+    }
+}
@@ -0,0 +1,62 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Precompiled case-sensitive marker that is searched directly in raw console bytes.
+ *
+ * The marker is encoded to UTF-8 once, then lines are scanned with Boyer-Moore-Horspool,
+ * so no line has to be decoded to a String just to find out it is not published.
+ */
+final class ConsoleLineMatcher {
+
+    private final byte[] pattern;
+    private final int[] shift = new int[256];
+
+    private ConsoleLineMatcher(byte[] pattern) {
+        this.pattern = pattern;
+        Arrays.fill(shift, pattern.length);
+        for (int i = 0; i < pattern.length - 1; i++) {
+            shift[pattern[i] & 0xff] = pattern.length - 1 - i;
+        }
+    }
+
+    /**
+     * Compiles marker.
+     *
+     * @param marker the marker.
+     * @return the matcher, or null if marker is blank.
+     */
+    static ConsoleLineMatcher compile(String marker) {
+        if (StringUtils.isBlank(marker)) {
+            return null;
+        }
+        return new ConsoleLineMatcher(marker.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Gets whether the marker is found in the first len bytes of line.
+     *
+     * @param line the raw line.
+     * @param len the number of valid bytes.
+     * @return true if found.
+     */
+    boolean matches(byte[] line, int len) {
+        final int last = pattern.length - 1;
+        int pos = 0;
+        while (pos <= len - pattern.length) {
+            int i = last;
+            while (line[pos + i] == pattern[i]) {
+                if (i == 0) {
+                    return true;
+                }
+                i--;
+            }
+            pos += shift[line[pos + last] & 0xff];
+        }
+        return false;
+    }
+}
@@ -0,0 +1,105 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+/**
+ * Normalizes raw console lines before they are matched and published.
+ *
+ * Everything up to the last carriage return is dropped, so a progress bar rewritten in place
+ * is published in its final state only. ANSI escape sequences are removed: CSI sequences
+ * such as colors and cursor movement, OSC sequences such as hyperlinks and window titles,
+ * and the short sequences that select character sets or modes.
+ * Lines are processed as raw bytes, so they are never decoded just to be normalized.
+ * This class is not thread-safe, every logger owns an instance.
+ */
+final class ConsoleLineNormalizer {
+
+    private static final byte ESC = 0x1b;
+    private static final byte BEL = 0x07;
+
+    private byte[] buffer = new byte[256];
+    private byte[] line;
+
+    /**
+     * Normalizes the first len bytes of line.
+     * The result is read with {@link #getLine()}, it stays valid until the next call.
+     *
+     * @param line the raw line, without end-of-line characters.
+     * @param len the number of valid bytes.
+     * @return the number of valid bytes in the result.
+     */
+    int normalize(byte[] line, int len) {
+        int start = 0;
+        boolean escaped = false;
+        for (int i = len - 1; i >= 0; i--) {
+            if (line[i] == '\r') {
+                start = i + 1;
+                break;
+            }
+            if (line[i] == ESC) {
+                escaped = true;
+            }
+        }
+        if (!escaped && start == 0) {
+            // Most lines are plain text, no copy needed.
+            this.line = line;
+            return len;
+        }
+
+        if (buffer.length < len - start) {
+            buffer = new byte[Math.max(len - start, buffer.length * 2)];
+        }
+        int out = 0;
+        int i = start;
+        while (i < len) {
+            byte c = line[i];
+            if (c != ESC) {
+                buffer[out++] = c;
+                i++;
+            } else if (i + 1 == len) {
+                // Truncated sequence.
+                i++;
+            } else if (line[i + 1] == '[') {
+                // CSI: parameters and intermediates up to a final byte in 0x40-0x7E.
+                i += 2;
+                while (i < len && (line[i] < 0x40 || line[i] > 0x7e)) {
+                    i++;
+                }
+                i++;
+            } else if (line[i + 1] == ']') {
+                // OSC: terminated by BEL or ESC \.
+                i += 2;
+                while (i < len) {
+                    if (line[i] == BEL) {
+                        i++;
+                        break;
+                    }
+                    if (line[i] == ESC && i + 1 < len && line[i + 1] == '\\') {
+                        i += 2;
+                        break;
+                    }
+                    i++;
+                }
+            } else if (line[i + 1] >= 0x20 && line[i + 1] <= 0x2f) {
+                // Intermediates then one final byte, e.g. ESC ( B.
+                i += 2;
+                while (i < len && line[i] >= 0x20 && line[i] <= 0x2f) {
+                    i++;
+                }
+                i++;
+            } else {
+                // Two-byte sequence, e.g. ESC 7 or ESC M.
+                i += 2;
+            }
+        }
+        this.line = buffer;
+        return out;
+    }
+
+    /**
+     * Gets the result of the last call to {@link #normalize(byte[], int)}.
+     *
+     * @return the normalized line, either the line passed in or an internal buffer.
+     */
+    byte[] getLine() {
+        return line;
+    }
+}
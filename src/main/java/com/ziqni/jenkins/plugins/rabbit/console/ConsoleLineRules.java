@@ -0,0 +1,255 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Start, stop, include and exclude rules for console publishing, compiled once per build.
+ *
+ * Literal rules of all kinds go into a single byte automaton, regex rules into a single
+ * combined pattern, so each line is scanned once no matter how many rules are configured.
+ * A rule prefixed with {@value #REGEX_PREFIX} is a regular expression, anything else is a
+ * case-sensitive literal.
+ *
+ * A regex rule that would change its meaning or break the combined pattern, one with
+ * backreferences, named groups, quoting or comments, is compiled and matched on its own.
+ */
+final class ConsoleLineRules {
+
+    /**
+     * Prefix that marks a rule as regular expression.
+     */
+    static final String REGEX_PREFIX = "regex:";
+
+    static final int START = 1;
+    static final int STOP = 1 << 1;
+    static final int INCLUDE = 1 << 2;
+    static final int EXCLUDE = 1 << 3;
+
+    private final int kinds;
+    private final ConsoleLineMatcher singleLiteral;
+    private final int singleLiteralMask;
+    private final AhoCorasickMatcher literals;
+    private final Pattern regex;
+    private final int[] regexMasks;
+    private final int[] regexGroups;
+    private final Pattern[] ownRegexes;
+    private final int[] ownRegexMasks;
+    private final int regexKinds;
+
+    private ConsoleLineRules(List<byte[]> literalPatterns, List<Integer> literalMasks,
+                             List<String> regexPatterns, List<Integer> regexMasks) {
+        int k = 0;
+
+        if (literalPatterns.size() == 1) {
+            // A single marker is faster with a skipping search than with the automaton.
+            this.singleLiteral = ConsoleLineMatcher.compile(new String(literalPatterns.get(0), StandardCharsets.UTF_8));
+            this.singleLiteralMask = literalMasks.get(0);
+            this.literals = null;
+        } else if (literalPatterns.size() > 1) {
+            int[] masks = new int[literalMasks.size()];
+            for (int i = 0; i < masks.length; i++) {
+                masks[i] = literalMasks.get(i);
+            }
+            this.singleLiteral = null;
+            this.singleLiteralMask = 0;
+            this.literals = new AhoCorasickMatcher(literalPatterns, masks);
+        } else {
+            this.singleLiteral = null;
+            this.singleLiteralMask = 0;
+            this.literals = null;
+        }
+        for (int mask : literalMasks) {
+            k |= mask;
+        }
+
+        List<String> combinedPatterns = new ArrayList<>();
+        List<Integer> combinedMasks = new ArrayList<>();
+        List<Pattern> own = new ArrayList<>();
+        List<Integer> ownMasks = new ArrayList<>();
+        for (int i = 0; i < regexPatterns.size(); i++) {
+            String expression = regexPatterns.get(i);
+            if (needsOwnPattern(expression)) {
+                own.add(Pattern.compile(expression));
+                ownMasks.add(regexMasks.get(i));
+            } else {
+                combinedPatterns.add(expression);
+                combinedMasks.add(regexMasks.get(i));
+            }
+            k |= regexMasks.get(i);
+        }
+
+        if (combinedPatterns.isEmpty()) {
+            this.regex = null;
+            this.regexMasks = new int[0];
+            this.regexGroups = new int[0];
+            this.regexKinds = 0;
+        } else {
+            // Optional lookaheads are evaluated at every position, so overlapping rules are all seen.
+            StringBuilder combined = new StringBuilder();
+            this.regexMasks = new int[combinedPatterns.size()];
+            this.regexGroups = new int[combinedPatterns.size()];
+            int rk = 0;
+            int group = 1;
+            for (int i = 0; i < combinedPatterns.size(); i++) {
+                String expression = combinedPatterns.get(i);
+                combined.append("(?:(?=(").append(expression).append(")))?");
+                this.regexMasks[i] = combinedMasks.get(i);
+                this.regexGroups[i] = group;
+                // Skip the groups the rule declares itself.
+                group += 1 + Pattern.compile(expression).matcher("").groupCount();
+                rk |= combinedMasks.get(i);
+            }
+            this.regex = Pattern.compile(combined.toString());
+            this.regexKinds = rk;
+        }
+        this.ownRegexes = own.toArray(new Pattern[0]);
+        this.ownRegexMasks = new int[ownMasks.size()];
+        for (int i = 0; i < ownRegexMasks.length; i++) {
+            ownRegexMasks[i] = ownMasks.get(i);
+        }
+        this.kinds = k;
+    }
+
+    /**
+     * Compiles rules.
+     *
+     * @param startRules the start rules, one per line.
+     * @param stopRules the stop rules, one per line.
+     * @param includeRules the include rules, one per line.
+     * @param excludeRules the exclude rules, one per line.
+     * @return the compiled rules.
+     * @throws java.util.regex.PatternSyntaxException if a regex rule is invalid.
+     */
+    static ConsoleLineRules compile(String startRules, String stopRules, String includeRules, String excludeRules) {
+        List<byte[]> literalPatterns = new ArrayList<>();
+        List<Integer> literalMasks = new ArrayList<>();
+        List<String> regexPatterns = new ArrayList<>();
+        List<Integer> regexMasks = new ArrayList<>();
+
+        String[] rules = {startRules, stopRules, includeRules, excludeRules};
+        int[] masks = {START, STOP, INCLUDE, EXCLUDE};
+
+        for (int i = 0; i < rules.length; i++) {
+            for (String rule : split(rules[i])) {
+                if (rule.startsWith(REGEX_PREFIX)) {
+                    String expression = rule.substring(REGEX_PREFIX.length());
+                    Pattern.compile(expression); // fail fast with the rule itself in the message
+                    regexPatterns.add(expression);
+                    regexMasks.add(masks[i]);
+                } else {
+                    literalPatterns.add(rule.getBytes(StandardCharsets.UTF_8));
+                    literalMasks.add(masks[i]);
+                }
+            }
+        }
+        return new ConsoleLineRules(literalPatterns, literalMasks, regexPatterns, regexMasks);
+    }
+
+    /**
+     * Gets whether a regex rule must not go into the combined pattern.
+     *
+     * Backreferences count groups from the start of the pattern and named groups must be
+     * unique in it, so both change their meaning once combined. Quoting with {@code \Q}
+     * and comments run to the end of the pattern and would swallow the rules after it.
+     * Anything that looks like one of these is matched on its own.
+     *
+     * @param expression the regular expression.
+     * @return true if it is compiled on its own.
+     */
+    static boolean needsOwnPattern(String expression) {
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (c == '\\' && i + 1 < expression.length()) {
+                char next = expression.charAt(++i);
+                if ((next >= '1' && next <= '9') || next == 'k' || next == 'Q') {
+                    return true;
+                }
+            } else if (c == '(' && expression.startsWith("(?<", i) && i + 3 < expression.length()
+                    && Character.isLetter(expression.charAt(i + 3))) {
+                return true;
+            } else if (c == '#') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits rules by line, ignoring blank lines.
+     *
+     * @param rules the rules.
+     * @return the list of rules.
+     */
+    static List<String> split(String rules) {
+        List<String> list = new ArrayList<>();
+        if (StringUtils.isNotBlank(rules)) {
+            for (String rule : rules.split("\\r?\\n")) {
+                if (StringUtils.isNotBlank(rule)) {
+                    list.add(rule);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Gets whether any rule of given kind is configured.
+     *
+     * @param kind the kind.
+     * @return true if so.
+     */
+    boolean has(int kind) {
+        return (kinds & kind) != 0;
+    }
+
+    /**
+     * Gets whether matching needs the decoded line.
+     *
+     * @return true if regex rules are configured.
+     */
+    boolean needsText() {
+        return regex != null || ownRegexes.length > 0;
+    }
+
+    /**
+     * Matches line against all rules.
+     *
+     * @param line the raw line.
+     * @param len the number of valid bytes.
+     * @param text the decoded line, only needed if {@link #needsText()}.
+     * @return the kinds of rules that matched.
+     */
+    int match(byte[] line, int len, CharSequence text) {
+        int found = 0;
+        if (singleLiteral != null && singleLiteral.matches(line, len)) {
+            found |= singleLiteralMask;
+        } else if (literals != null) {
+            found |= literals.scan(line, len);
+        }
+
+        if (regex != null) {
+            int regexFound = 0;
+            Matcher m = regex.matcher(text);
+            while (regexFound != regexKinds && m.find()) {
+                for (int i = 0; i < regexMasks.length; i++) {
+                    if (m.start(regexGroups[i]) >= 0) {
+                        regexFound |= regexMasks[i];
+                    }
+                }
+            }
+            found |= regexFound;
+        }
+        for (int i = 0; i < ownRegexes.length; i++) {
+            if ((found & ownRegexMasks[i]) == 0 && ownRegexes[i].matcher(text).find()) {
+                found |= ownRegexMasks[i];
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,45 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+/**
+ * A enum for what happens to console messages when the publish buffer is full.
+ */
+public enum ConsoleOverflowPolicy {
+
+    /**
+     * The oldest buffered message is dropped to make room.
+     * This is the default, it comes first so that forms select it.
+     */
+    DROP_OLDEST("Drop oldest"),
+
+    /**
+     * The build waits for free space, up to a timeout, then the message is dropped.
+     * Once a wait timed out, messages are dropped without waiting until the buffer is drained again.
+     */
+    BLOCK("Block"),
+
+    /**
+     * The new message is dropped.
+     */
+    DROP_NEWEST("Drop newest"),
+
+    /**
+     * One in N overflowing messages replaces the oldest buffered message, the others are dropped.
+     */
+    SAMPLE("Sample 1 in N"),
+
+    /**
+     * A message equal to the last buffered one only increments its repeat count,
+     * other messages replace the oldest buffered message.
+     */
+    COLLAPSE("Collapse repeated");
+
+    private final String displayName;
+
+    ConsoleOverflowPolicy(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
@@ -0,0 +1,80 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes console bundles into message bodies.
+ *
+ * A frame is laid out in big-endian order as:
+ * <pre>
+ * int   line count
+ * per line:
+ *   int   line number
+ *   int   length of line in bytes
+ *   byte  UTF-8 line, without end-of-line characters
+ * </pre>
+ */
+final class ConsolePayloadCodec {
+
+    /**
+     * Content type of framed payloads.
+     */
+    static final String FRAME_CONTENT_TYPE = "application/x-rabbit-console-frame";
+
+    private ConsolePayloadCodec() {
+    }
+
+    /**
+     * Encodes all lines of bundle into a frame then clears the bundle.
+     *
+     * @param bundle the bundle.
+     * @return the frame.
+     */
+    static byte[] drainFrame(ConsoleBundle bundle) {
+        int count = bundle.size();
+        // Size of lines is known, only multi-byte characters make the buffer grow.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, 4 + 8L * count + bundle.getBytes()));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                byte[] line = bundle.getLine(i).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bundle.getLineNumber(i));
+                out.writeInt(line.length);
+                out.write(line);
+            }
+        } catch (IOException e) {
+            // Cannot happen with an in-memory stream.
+            throw new IllegalStateException(e);
+        }
+        bundle.clear();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Compresses body.
+     *
+     * @param body the body.
+     * @param compression the compression.
+     * @return the compressed body, or body itself if not compressed.
+     * @throws IOException if compression fails.
+     */
+    static byte[] compress(byte[] body, ConsolePayloadCompression compression) throws IOException {
+        if (compression == null || compression == ConsolePayloadCompression.NONE) {
+            return body;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (OutputStream out = compression == ConsolePayloadCompression.GZIP
+                ? new GZIPOutputStream(bytes, 8192)
+                : new LZ4FrameOutputStream(bytes)) {
+            out.write(body);
+        }
+        return bytes.toByteArray();
+    }
+}
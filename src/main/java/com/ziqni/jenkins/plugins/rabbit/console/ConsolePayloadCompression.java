@@ -0,0 +1,43 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+/**
+ * A enum for console payload compressions.
+ */
+public enum ConsolePayloadCompression {
+
+    /**
+     * Payload is sent as is.
+     */
+    NONE("None", null),
+
+    /**
+     * Payload is compressed with gzip.
+     */
+    GZIP("Gzip", "gzip"),
+
+    /**
+     * Payload is compressed in LZ4 frame format.
+     */
+    LZ4("LZ4", "lz4");
+
+    private final String displayName;
+    private final String contentEncoding;
+
+    ConsolePayloadCompression(String displayName, String contentEncoding) {
+        this.displayName = displayName;
+        this.contentEncoding = contentEncoding;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * Gets the content encoding set on messages.
+     *
+     * @return the content encoding, or null if not compressed.
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+}
@@ -0,0 +1,27 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+/**
+ * A enum for console payload formats.
+ */
+public enum ConsolePayloadFormat {
+
+    /**
+     * Lines joined with new line, template is applied.
+     */
+    TEXT("Text"),
+
+    /**
+     * Length-prefixed frame with a sequence number per line, template is not applied.
+     */
+    FRAMED("Framed");
+
+    private final String displayName;
+
+    ConsolePayloadFormat(String displayName) {
+        this.displayName = displayName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+}
@@ -0,0 +1,245 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import com.ziqni.jenkins.plugins.rabbit.console.ConsoleStreamPublisher.ConsoleMessage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+import static com.ziqni.jenkins.plugins.rabbit.trigger.RabbitBuildPublisher.LOG_HEADER;
+
+/**
+ * Append-only journal of console messages that could not be published.
+ *
+ * Messages are appended to segment files in the build directory and replayed in order.
+ * A segment is deleted once all of its messages are replayed, so the journal only takes
+ * disk space while the broker is unreachable. Each record is laid out as:
+ * <pre>
+ * int     length of body
+ * int     line number
+ * int     line count
+ * int     repeats
+ * boolean last of section
+ * long    size of raw lines
+ * long    creation time in millis
+ * byte    body
+ * </pre>
+ * This class is only used from the background publisher, all methods are synchronized anyway.
+ */
+final class ConsoleSpillJournal {
+
+    private static final Logger LOGGER = Logger.getLogger(ConsoleSpillJournal.class.getName());
+
+    /**
+     * Name of the journal directory in the build directory.
+     */
+    static final String DIR_NAME = "rabbit-console-spill";
+
+    /**
+     * Default size at which a new segment is started.
+     */
+    static final long DEFAULT_SEGMENT_BYTES = 8 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File dir;
+    private final long segmentBytes;
+    private final Deque<File> segments = new ArrayDeque<>();
+
+    private int nextSegment = 0;
+    private DataOutputStream writer;
+    private long writerBytes;
+    private DataInputStream reader;
+    private ConsoleMessage head;
+    private volatile long pending = 0;
+
+    /**
+     * Creates instance with specified parameters.
+     * Nothing is written to disk until the first message is appended.
+     *
+     * @param dir the journal directory.
+     * @param segmentBytes the size at which a new segment is started.
+     */
+    ConsoleSpillJournal(File dir, long segmentBytes) {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes > 0 ? segmentBytes : DEFAULT_SEGMENT_BYTES;
+    }
+
+    /**
+     * Gets whether all appended messages were replayed.
+     *
+     * @return true if so.
+     */
+    boolean isEmpty() {
+        return pending == 0;
+    }
+
+    /**
+     * Gets the number of messages waiting for replay.
+     *
+     * @return the number of messages.
+     */
+    long size() {
+        return pending;
+    }
+
+    /**
+     * Appends message.
+     *
+     * @param message the message.
+     * @throws IOException if the message cannot be written.
+     */
+    synchronized void append(ConsoleMessage message) throws IOException {
+        if (writer == null || writerBytes >= segmentBytes) {
+            openSegment();
+        }
+        byte[] body = message.getBody();
+        writer.writeInt(body.length);
+        writer.writeInt(message.getLineNumber());
+        writer.writeInt(message.getLineCount());
+        writer.writeInt(message.getRepeats());
+        writer.writeBoolean(message.isLastOfSection());
+        writer.writeLong(message.getSize());
+        writer.writeLong(message.getCreatedAt());
+        writer.write(body);
+        // The reader may be on the same segment, make the record visible.
+        writer.flush();
+        writerBytes += 33 + body.length;
+        pending++;
+    }
+
+    /**
+     * Replays messages in order until the sink refuses one or the journal is empty.
+     * A refused message stays at the head of the journal.
+     *
+     * @param sink the sink, returns true if the message was published.
+     * @return the number of replayed messages.
+     * @throws IOException if the journal cannot be read.
+     */
+    synchronized int replay(Predicate<ConsoleMessage> sink) throws IOException {
+        int replayed = 0;
+        while (pending > 0) {
+            if (head == null) {
+                head = read();
+            }
+            if (!sink.test(head)) {
+                break;
+            }
+            head = null;
+            pending--;
+            replayed++;
+        }
+        if (pending == 0 && !segments.isEmpty()) {
+            // Everything is replayed, start over with the next spill.
+            closeStreams();
+            deleteSegments();
+        }
+        return replayed;
+    }
+
+    /**
+     * Closes the journal.
+     * Messages that were not replayed are left on disk.
+     */
+    synchronized void close() {
+        closeStreams();
+        if (pending == 0) {
+            deleteSegments();
+        } else {
+            LOGGER.warning(LOG_HEADER + pending + " console messages were not replayed, they are left in " + dir);
+        }
+    }
+
+    /**
+     * Closes the journal and deletes it, along with messages that were not replayed.
+     * Used where nobody would replay them, e.g. in the temporary directory of an agent.
+     */
+    synchronized void discard() {
+        closeStreams();
+        if (pending > 0) {
+            LOGGER.warning(LOG_HEADER + pending + " console messages were not replayed, they are discarded.");
+            pending = 0;
+        }
+        deleteSegments();
+    }
+
+    private ConsoleMessage read() throws IOException {
+        while (true) {
+            if (reader == null) {
+                reader = new DataInputStream(new BufferedInputStream(new FileInputStream(segments.getFirst())));
+            }
+            if (reader.available() > 0 || segments.size() == 1) {
+                break;
+            }
+            // The oldest segment is fully replayed and a newer one exists.
+            reader.close();
+            reader = null;
+            Files.deleteIfExists(segments.removeFirst().toPath());
+        }
+        int length = reader.readInt();
+        int lineNumber = reader.readInt();
+        int lineCount = reader.readInt();
+        int repeats = reader.readInt();
+        boolean lastOfSection = reader.readBoolean();
+        long size = reader.readLong();
+        long createdAt = reader.readLong();
+        byte[] body = new byte[length];
+        reader.readFully(body);
+        ConsoleMessage message = new ConsoleMessage(body, lineNumber, lineCount, lastOfSection, size, createdAt);
+        message.addRepeats(repeats);
+        return message;
+    }
+
+    private void openSegment() throws IOException {
+        if (writer != null) {
+            writer.close();
+        }
+        Files.createDirectories(dir.toPath());
+        File segment = new File(dir, String.format("%s%06d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+        writer = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment, true)));
+        writerBytes = 0;
+        segments.addLast(segment);
+    }
+
+    private void closeStreams() {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+            if (reader != null) {
+                reader.close();
+            }
+        } catch (IOException e) {
+            LOGGER.warning(LOG_HEADER + "Failed to close console spill journal: " + e.getMessage());
+        } finally {
+            writer = null;
+            reader = null;
+            head = null;
+        }
+    }
+
+    private void deleteSegments() {
+        try {
+            for (File segment : segments) {
+                Files.deleteIfExists(segment.toPath());
+            }
+            segments.clear();
+            if (dir.isDirectory()) {
+                Files.deleteIfExists(dir.toPath());
+            }
+        } catch (IOException e) {
+            LOGGER.warning(LOG_HEADER + "Failed to delete console spill journal: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import com.ziqni.jenkins.plugins.rabbit.utils.Utils;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What the console publisher needs to know about the run, captured on the controller.
+ * This is serializable so that it can be shipped to the agent with the log filter.
+ */
+final class ConsoleStreamContext implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final HashMap<String, String> envVars;
+    private final int buildNumber;
+    private final String displayName;
+    private final String fullDisplayName;
+
+    private ConsoleStreamContext(Map<String, String> envVars, int buildNumber, String displayName, String fullDisplayName) {
+        this.envVars = new HashMap<>(envVars);
+        this.buildNumber = buildNumber;
+        this.displayName = displayName;
+        this.fullDisplayName = fullDisplayName;
+    }
+
+    /**
+     * Captures context of run.
+     *
+     * @param run the run.
+     * @param listener the listener.
+     * @return the context.
+     * @throws IOException if the environment cannot be read.
+     * @throws InterruptedException if interrupted while reading the environment.
+     */
+    static ConsoleStreamContext of(Run<?, ?> run, TaskListener listener) throws IOException, InterruptedException {
+        Map<String, String> envVars = new HashMap<>(run.getEnvironment(listener));
+        // The run is not available on the agent, so resolve what depends on it now.
+        Utils.injectBuildStartDate(run, envVars);
+        return new ConsoleStreamContext(envVars, run.getNumber(), run.getDisplayName(), run.getFullDisplayName());
+    }
+
+    Map<String, String> getEnvVars() {
+        return envVars;
+    }
+
+    int getBuildNumber() {
+        return buildNumber;
+    }
+
+    String getDisplayName() {
+        return displayName;
+    }
+
+    String getFullDisplayName() {
+        return fullDisplayName;
+    }
+}
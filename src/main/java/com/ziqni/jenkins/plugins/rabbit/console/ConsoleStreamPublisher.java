@@ -0,0 +1,494 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import static com.ziqni.jenkins.plugins.rabbit.trigger.RabbitBuildPublisher.LOG_HEADER;
+
+/**
+ * Per-build pipeline that decouples console lines from the broker.
+ *
+ * The build thread only puts messages into a bounded ring buffer. A background
+ * worker from a shared pool drains the buffer and hands the messages to the sink in batches,
+ * so a slow or flow-controlled broker never sits on the build's own stdout path.
+ */
+class ConsoleStreamPublisher {
+
+    private static final Logger LOGGER = Logger.getLogger(ConsoleStreamPublisher.class.getName());
+
+    /**
+     * Default capacity of the ring buffer.
+     */
+    static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Default time to wait for the buffer to be flushed on close.
+     */
+    static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Default N of {@link ConsoleOverflowPolicy#SAMPLE}.
+     */
+    static final int DEFAULT_SAMPLE_RATE = 10;
+
+    /**
+     * Default maximum wait of {@link ConsoleOverflowPolicy#BLOCK}.
+     */
+    static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Maximum number of messages handed to the sink at once.
+     */
+    static final int MAX_BATCH_MESSAGES = 64;
+
+    private static final ExecutorService DRAIN_EXECUTOR = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), "RabbitConsolePublisher"));
+
+    private final BlockingQueue<ConsoleMessage> queue;
+    private final Consumer<List<ConsoleMessage>> sink;
+    private final Runnable idleTask;
+    private final ConsoleOverflowPolicy policy;
+    private final int sampleRate;
+    private final long blockTimeoutMillis;
+    private final AtomicLong overflowCount = new AtomicLong(0);
+    private final AtomicLong droppedMessages = new AtomicLong(0);
+    private final AtomicLong droppedLines = new AtomicLong(0);
+    private final AtomicLong collapsedMessages = new AtomicLong(0);
+    // Set once a block timed out, the build no longer waits until the worker hands a batch to the sink.
+    private volatile boolean blockTimedOut = false;
+    private volatile ConsoleMessage last;
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final AtomicLong bufferedBytes = new AtomicLong(0);
+    private volatile boolean closed = false;
+    private volatile Runnable closeTask;
+    private final AtomicBoolean closeTaskStarted = new AtomicBoolean(false);
+    private volatile boolean closeTaskDone = false;
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param capacity the capacity of the ring buffer.
+     * @param policy the policy applied when the buffer is full.
+     * @param sampleRate the N of {@link ConsoleOverflowPolicy#SAMPLE}.
+     * @param blockTimeoutMillis the maximum wait of {@link ConsoleOverflowPolicy#BLOCK}.
+     * @param sink the consumer that publishes a batch of drained messages, in order. The list is reused after the call.
+     * @param idleTask the task run by the worker each time the buffer is drained, may be null.
+     */
+    ConsoleStreamPublisher(int capacity, ConsoleOverflowPolicy policy, int sampleRate, long blockTimeoutMillis,
+                           Consumer<List<ConsoleMessage>> sink, Runnable idleTask) {
+        this.queue = new ArrayBlockingQueue<>(capacity > 0 ? capacity : DEFAULT_CAPACITY);
+        this.policy = policy != null ? policy : ConsoleOverflowPolicy.DROP_OLDEST;
+        this.sampleRate = sampleRate > 0 ? sampleRate : DEFAULT_SAMPLE_RATE;
+        this.blockTimeoutMillis = blockTimeoutMillis >= 0 ? blockTimeoutMillis : DEFAULT_BLOCK_TIMEOUT_MILLIS;
+        this.sink = sink;
+        this.idleTask = idleTask;
+    }
+
+    /**
+     * Puts message into the buffer.
+     * If the buffer is full the overflow policy decides, only {@link ConsoleOverflowPolicy#BLOCK} waits.
+     * Must not be called concurrently, callers hold the bundle lock.
+     *
+     * @param message the message.
+     * @throws InterruptedException if interrupted while waiting for free space.
+     */
+    void enqueue(ConsoleMessage message) throws InterruptedException {
+        if (closed) {
+            LOGGER.warning(LOG_HEADER + "Console publisher is already closed, message is discarded.");
+            return;
+        }
+        bufferedBytes.addAndGet(message.getSize());
+        boolean accepted;
+        try {
+            accepted = queue.offer(message) || overflow(message);
+        } catch (InterruptedException e) {
+            bufferedBytes.addAndGet(-message.getSize());
+            throw e;
+        }
+        if (accepted) {
+            last = message;
+            scheduleDrain();
+        } else {
+            bufferedBytes.addAndGet(-message.getSize());
+        }
+    }
+
+    /**
+     * Applies the overflow policy to a message that did not fit.
+     *
+     * @return true if the message was put into the buffer.
+     */
+    private boolean overflow(ConsoleMessage message) throws InterruptedException {
+        switch (policy) {
+            case DROP_OLDEST:
+                return replaceOldest(message);
+            case DROP_NEWEST:
+                drop(message);
+                return false;
+            case SAMPLE:
+                if (overflowCount.incrementAndGet() % sampleRate == 0) {
+                    return replaceOldest(message);
+                }
+                drop(message);
+                return false;
+            case COLLAPSE:
+                if (repeatLast(message)) {
+                    return false;
+                }
+                // A different message becomes the new tail that later repeats collapse into.
+                return replaceOldest(message);
+            case BLOCK:
+            default:
+                // Only the first message waits, the following ones fail fast until the worker made progress.
+                if (!blockTimedOut && queue.offer(message, blockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+                if (!blockTimedOut) {
+                    blockTimedOut = true;
+                    if (overflowCount.getAndIncrement() == 0) {
+                        LOGGER.warning(LOG_HEADER + "Console publisher is blocked for more than " + blockTimeoutMillis
+                                + " ms, messages are dropped until it catches up.");
+                    }
+                }
+                drop(message);
+                return false;
+        }
+    }
+
+    /**
+     * Counts message as repeat of the last accepted message if both bodies are equal
+     * and the worker has not taken the last message yet.
+     * Nothing is collapsed into the message that closes a section.
+     *
+     * @param message the message.
+     * @return true if counted, false if message has to be queued.
+     */
+    boolean repeatLast(ConsoleMessage message) {
+        ConsoleMessage tail = last;
+        if (tail != null && !tail.isLastOfSection() && Arrays.equals(tail.getBody(), message.getBody())
+                && tail.addRepeats(1 + message.getRepeats())) {
+            collapsedMessages.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean replaceOldest(ConsoleMessage message) {
+        while (!queue.offer(message)) {
+            ConsoleMessage oldest = queue.poll();
+            if (oldest != null) {
+                bufferedBytes.addAndGet(-oldest.getSize());
+                drop(oldest);
+            }
+        }
+        return true;
+    }
+
+    private void drop(ConsoleMessage message) {
+        droppedMessages.incrementAndGet();
+        droppedLines.addAndGet(message.getLineCount());
+    }
+
+    /**
+     * Gets the number of messages dropped by the overflow policy.
+     *
+     * @return the number of messages.
+     */
+    long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    /**
+     * Gets the number of lines dropped by the overflow policy.
+     *
+     * @return the number of lines.
+     */
+    long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    /**
+     * Gets the number of messages collapsed into a repeat count.
+     *
+     * @return the number of messages.
+     */
+    long getCollapsedMessages() {
+        return collapsedMessages.get();
+    }
+
+    /**
+     * Puts message into the buffer if there is free space.
+     * This never blocks, so it is safe to call from shared timer threads.
+     *
+     * @param message the message.
+     * @return true if the message was accepted.
+     */
+    boolean offer(ConsoleMessage message) {
+        if (closed) {
+            return false;
+        }
+        bufferedBytes.addAndGet(message.getSize());
+        if (!queue.offer(message)) {
+            bufferedBytes.addAndGet(-message.getSize());
+            return false;
+        }
+        last = message;
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Gets the number of payload bytes waiting in the buffer.
+     *
+     * @return the number of bytes.
+     */
+    long getBufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /**
+     * Gets whether the buffer can take another message without blocking.
+     *
+     * @return true if so.
+     */
+    boolean hasRemainingCapacity() {
+        return queue.remainingCapacity() > 0;
+    }
+
+    /**
+     * Gets the number of messages waiting in the buffer.
+     *
+     * @return the number of messages.
+     */
+    int size() {
+        return queue.size();
+    }
+
+    /**
+     * Closes this publisher then waits until all buffered messages are handed to the sink.
+     *
+     * @param timeoutMillis the maximum time to wait.
+     * @return true if the buffer was flushed in time.
+     */
+    boolean close(long timeoutMillis) {
+        return close(timeoutMillis, null);
+    }
+
+    /**
+     * Closes this publisher then waits until all buffered messages are handed to the sink
+     * and the close task ran.
+     * If this call times out, the worker still hands the buffered messages to the sink, which
+     * publishes or spills them, then runs the close task. So the close task never runs at the
+     * same time as the sink or the idle task, and no buffered message is lost.
+     *
+     * @param timeoutMillis the maximum time to wait.
+     * @param closeTask the task run by the worker after the last batch, may be null.
+     * @return true if the buffer was flushed and the close task ran in time.
+     */
+    boolean close(long timeoutMillis, Runnable closeTask) {
+        this.closeTask = closeTask;
+        closed = true;
+        wakeUp();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (this) {
+            while (!queue.isEmpty() || draining.get() || (closeTask != null && !closeTaskDone)) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    // The worker goes on with the buffered messages and the close task in the background.
+                    LOGGER.warning(LOG_HEADER + "Timed out flushing console publisher, " + queue.size()
+                            + " messages are still handed to the publisher in the background.");
+                    return false;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts the worker even if the buffer is empty, so that the idle task runs.
+     */
+    void wakeUp() {
+        if (draining.compareAndSet(false, true)) {
+            DRAIN_EXECUTOR.execute(this::drain);
+        }
+    }
+
+    private void scheduleDrain() {
+        if ((!queue.isEmpty() || isCloseTaskDue()) && draining.compareAndSet(false, true)) {
+            DRAIN_EXECUTOR.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            List<ConsoleMessage> batch = new ArrayList<>(MAX_BATCH_MESSAGES);
+            while (queue.drainTo(batch, MAX_BATCH_MESSAGES) > 0) {
+                long size = 0;
+                for (ConsoleMessage message : batch) {
+                    // From now on repeats can no longer be added to this message.
+                    message.markTaken();
+                    size += message.getSize();
+                }
+                try {
+                    sink.accept(batch);
+                } catch (RuntimeException e) {
+                    LOGGER.warning(LOG_HEADER + "Failed to publish console messages: " + e.getMessage());
+                } finally {
+                    bufferedBytes.addAndGet(-size);
+                    batch.clear();
+                    blockTimedOut = false;
+                }
+            }
+            if (closed && closeTask != null) {
+                if (queue.isEmpty() && closeTaskStarted.compareAndSet(false, true)) {
+                    runCloseTask();
+                }
+            } else if (idleTask != null) {
+                try {
+                    idleTask.run();
+                } catch (RuntimeException e) {
+                    LOGGER.warning(LOG_HEADER + "Console publisher idle task failed: " + e.getMessage());
+                }
+            }
+        } finally {
+            draining.set(false);
+            synchronized (this) {
+                notifyAll();
+            }
+            // A message may have arrived after the last poll.
+            scheduleDrain();
+        }
+    }
+
+    private boolean isCloseTaskDue() {
+        return closed && closeTask != null && !closeTaskStarted.get();
+    }
+
+    private void runCloseTask() {
+        try {
+            closeTask.run();
+        } catch (RuntimeException e) {
+            LOGGER.warning(LOG_HEADER + "Console publisher close task failed: " + e.getMessage());
+        } finally {
+            closeTaskDone = true;
+        }
+    }
+
+    /**
+     * A console message waiting to be published.
+     */
+    static final class ConsoleMessage {
+
+        private final byte[] body;
+        private final int lineNumber;
+        private final int lineCount;
+        private final boolean lastOfSection;
+        private final long size;
+        private final long createdAt;
+        private int repeats = 0;
+        private boolean taken = false;
+
+        /**
+         * Creates instance with specified parameters.
+         *
+         * @param body the encoded body, not yet compressed.
+         * @param lineNumber the line number of the last line in body.
+         * @param lineCount the number of lines in body.
+         * @param lastOfSection true if publishing stops after this message.
+         * @param size the size of raw lines in bytes.
+         */
+        ConsoleMessage(byte[] body, int lineNumber, int lineCount, boolean lastOfSection, long size) {
+            this(body, lineNumber, lineCount, lastOfSection, size, System.currentTimeMillis());
+        }
+
+        /**
+         * Creates instance with specified parameters.
+         *
+         * @param body the encoded body, not yet compressed.
+         * @param lineNumber the line number of the last line in body.
+         * @param lineCount the number of lines in body.
+         * @param lastOfSection true if publishing stops after this message.
+         * @param size the size of raw lines in bytes.
+         * @param createdAt the time in millis the message was created.
+         */
+        ConsoleMessage(byte[] body, int lineNumber, int lineCount, boolean lastOfSection, long size, long createdAt) {
+            this.body = body;
+            this.createdAt = createdAt;
+            this.lineNumber = lineNumber;
+            this.lineCount = lineCount;
+            this.lastOfSection = lastOfSection;
+            this.size = size;
+        }
+
+        byte[] getBody() {
+            return body;
+        }
+
+        int getLineNumber() {
+            return lineNumber;
+        }
+
+        int getLineCount() {
+            return lineCount;
+        }
+
+        boolean isLastOfSection() {
+            return lastOfSection;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        long getCreatedAt() {
+            return createdAt;
+        }
+
+        /**
+         * Gets the number of equal messages collapsed into this one.
+         *
+         * @return the number of repeats.
+         */
+        synchronized int getRepeats() {
+            return repeats;
+        }
+
+        /**
+         * Adds repeats unless this message is already taken for publishing.
+         *
+         * @param count the number of repeats.
+         * @return true if added.
+         */
+        synchronized boolean addRepeats(int count) {
+            if (taken) {
+                return false;
+            }
+            repeats += count;
+            return true;
+        }
+
+        synchronized void markTaken() {
+            taken = true;
+        }
+    }
+}
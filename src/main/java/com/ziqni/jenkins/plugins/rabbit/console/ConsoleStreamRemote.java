@@ -0,0 +1,25 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+/**
+ * Controller side of a console stream published from an agent.
+ * An instance is exported over remoting with the log filter, so the agent
+ * only sends statistics back, never console lines.
+ */
+public interface ConsoleStreamRemote {
+
+    /**
+     * Adds statistics collected on the agent to the run.
+     *
+     * @param delta the statistics since the last call.
+     */
+    void merge(RabbitConsoleStreamAction delta);
+
+    /**
+     * Gets the broker password of the agent credentials.
+     * The password is fetched on demand, so it is never persisted with the log filter.
+     * The credentials of the controller are never returned.
+     *
+     * @return the password, or null if no agent credentials are configured.
+     */
+    String getPassword();
+}
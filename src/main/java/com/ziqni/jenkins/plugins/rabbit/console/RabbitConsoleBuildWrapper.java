@@ -8,19 +8,33 @@ import hudson.Launcher;
 import hudson.console.ConsoleLogFilter;
 import hudson.model.*;
 import hudson.tasks.BuildWrapperDescriptor;
+import hudson.util.FormValidation;
 import jenkins.tasks.SimpleBuildWrapper;
 import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
 import com.ziqni.jenkins.plugins.rabbit.trigger.RabbitBuildPublisher;
 
 import java.io.IOException;
+import java.io.Serializable;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.logging.Logger;
 
-public class RabbitConsoleBuildWrapper extends SimpleBuildWrapper implements RabbitMessageBuilderAccessors {
+import static com.ziqni.jenkins.plugins.rabbit.trigger.RabbitBuildPublisher.LOG_HEADER;
+
+public class RabbitConsoleBuildWrapper extends SimpleBuildWrapper implements RabbitMessageBuilderAccessors, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private static final Logger LOGGER = Logger.getLogger(RabbitConsoleBuildWrapper.class.getName());
 
+    /**
+     * Default hard cap of console bytes held in memory per build.
+     */
+    public static final long DEFAULT_MAX_BUFFERED_BYTES = 16L * 1024 * 1024;
+
     private String exchangeName;
     private String routingKey;
     private String template;
@@ -40,9 +54,26 @@ public class RabbitConsoleBuildWrapper extends SimpleBuildWrapper implements Rab
     private String clusterId;
     private String startPublishingIfMessageContains;
     private String stopPublishingIfMessageContains;
+    private String startMarkers;
+    private String stopMarkers;
+    private String includeFilters;
+    private String excludeFilters;
     private Boolean enableBundling=false;
     private Boolean excludeStartLine=false;
     private Boolean excludeStopLine =false;
+    private Integer consoleQueueCapacity = ConsoleStreamPublisher.DEFAULT_CAPACITY;
+    private Integer bundleMaxLines = ConsoleBundle.DEFAULT_MAX_LINES;
+    private Long bundleMaxBytes = ConsoleBundle.DEFAULT_MAX_BYTES;
+    private Long bundleMaxLingerMillis = ConsoleBundle.DEFAULT_MAX_LINGER_MILLIS;
+    private Long maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+    private ConsolePayloadFormat payloadFormat = ConsolePayloadFormat.TEXT;
+    private ConsolePayloadCompression payloadCompression = ConsolePayloadCompression.NONE;
+    private ConsoleOverflowPolicy overflowPolicy = ConsoleOverflowPolicy.DROP_OLDEST;
+    private Boolean publishFromAgent = false;
+    private Boolean normalizeConsole = false;
+    private Boolean collapseRepeatedLines = false;
+    private Integer overflowSampleRate = ConsoleStreamPublisher.DEFAULT_SAMPLE_RATE;
+    private Long overflowBlockTimeoutMillis = ConsoleStreamPublisher.DEFAULT_BLOCK_TIMEOUT_MILLIS;
 
     /**
      * Creates instance with specified parameters.
@@ -195,6 +226,74 @@ public class RabbitConsoleBuildWrapper extends SimpleBuildWrapper implements Rab
         this.stopPublishingIfMessageContains = stopPublishingIfMessageContains;
     }
 
+    public String getStartMarkers() {
+        return startMarkers;
+    }
+
+    @DataBoundSetter
+    public void setStartMarkers(String startMarkers) {
+        this.startMarkers = StringUtils.stripToNull(startMarkers);
+    }
+
+    public String getStopMarkers() {
+        return stopMarkers;
+    }
+
+    @DataBoundSetter
+    public void setStopMarkers(String stopMarkers) {
+        this.stopMarkers = StringUtils.stripToNull(stopMarkers);
+    }
+
+    public String getIncludeFilters() {
+        return includeFilters;
+    }
+
+    @DataBoundSetter
+    public void setIncludeFilters(String includeFilters) {
+        this.includeFilters = StringUtils.stripToNull(includeFilters);
+    }
+
+    public String getExcludeFilters() {
+        return excludeFilters;
+    }
+
+    @DataBoundSetter
+    public void setExcludeFilters(String excludeFilters) {
+        this.excludeFilters = StringUtils.stripToNull(excludeFilters);
+    }
+
+    /**
+     * Compiles start, stop, include and exclude rules.
+     * The single start and stop strings are kept as literal rules.
+     *
+     * @return the compiled rules.
+     */
+    ConsoleLineRules compileRules() {
+        return ConsoleLineRules.compile(
+                joinRules(literalRule(startPublishingIfMessageContains), startMarkers),
+                joinRules(literalRule(stopPublishingIfMessageContains), stopMarkers),
+                includeFilters,
+                excludeFilters);
+    }
+
+    private static String literalRule(String marker) {
+        if (marker != null && marker.startsWith(ConsoleLineRules.REGEX_PREFIX)) {
+            // Keep the legacy marker literal even if it looks like a regex rule.
+            return ConsoleLineRules.REGEX_PREFIX + Pattern.quote(marker);
+        }
+        return marker;
+    }
+
+    private static String joinRules(String first, String second) {
+        if (StringUtils.isBlank(first)) {
+            return second;
+        }
+        if (StringUtils.isBlank(second)) {
+            return first;
+        }
+        return first + "\n" + second;
+    }
+
     public String getTemplate() {
         return template;
     }
@@ -207,10 +306,47 @@ public class RabbitConsoleBuildWrapper extends SimpleBuildWrapper implements Rab
 
     @Override
     public ConsoleLogFilter createLoggerDecorator(Run<?, ?> run) {
+        if (Boolean.TRUE.equals(publishFromAgent)) {
+            try {
+                // A serializable filter is applied on the agent by Pipeline
+                return new RabbitConsoleRemoteLogFilter(this, run);
+            } catch (IOException e) {
+                LOGGER.warning(LOG_HEADER + "Cannot publish console from agent, falling back to controller: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         // Ensure that this returns a filter to decorate the console log
         return new RabbitConsoleLogFilter(TaskListener.NULL, this);
     }
 
+    public Boolean getPublishFromAgent() {
+        return publishFromAgent;
+    }
+
+    @DataBoundSetter
+    public void setPublishFromAgent(Boolean publishFromAgent) {
+        this.publishFromAgent = publishFromAgent;
+    }
+
+    public Boolean getNormalizeConsole() {
+        return normalizeConsole;
+    }
+
+    @DataBoundSetter
+    public void setNormalizeConsole(Boolean normalizeConsole) {
+        this.normalizeConsole = normalizeConsole;
+    }
+
+    public Boolean getCollapseRepeatedLines() {
+        return collapseRepeatedLines;
+    }
+
+    @DataBoundSetter
+    public void setCollapseRepeatedLines(Boolean collapseRepeatedLines) {
+        this.collapseRepeatedLines = collapseRepeatedLines;
+    }
+
     public String getContentType() {
         return contentType;
     }
@@ -364,6 +500,96 @@ public class RabbitConsoleBuildWrapper extends SimpleBuildWrapper implements Rab
         this.excludeStopLine = excludeStopLine;
     }
 
+    public Integer getConsoleQueueCapacity() {
+        return consoleQueueCapacity == null ? ConsoleStreamPublisher.DEFAULT_CAPACITY : consoleQueueCapacity;
+    }
+
+    @DataBoundSetter
+    public void setConsoleQueueCapacity(Integer consoleQueueCapacity) {
+        this.consoleQueueCapacity = consoleQueueCapacity;
+    }
+
+    public Integer getBundleMaxLines() {
+        return bundleMaxLines == null ? ConsoleBundle.DEFAULT_MAX_LINES : bundleMaxLines;
+    }
+
+    @DataBoundSetter
+    public void setBundleMaxLines(Integer bundleMaxLines) {
+        this.bundleMaxLines = bundleMaxLines;
+    }
+
+    public Long getBundleMaxBytes() {
+        return bundleMaxBytes == null ? ConsoleBundle.DEFAULT_MAX_BYTES : bundleMaxBytes;
+    }
+
+    @DataBoundSetter
+    public void setBundleMaxBytes(Long bundleMaxBytes) {
+        this.bundleMaxBytes = bundleMaxBytes;
+    }
+
+    public Long getBundleMaxLingerMillis() {
+        return bundleMaxLingerMillis == null ? ConsoleBundle.DEFAULT_MAX_LINGER_MILLIS : bundleMaxLingerMillis;
+    }
+
+    @DataBoundSetter
+    public void setBundleMaxLingerMillis(Long bundleMaxLingerMillis) {
+        this.bundleMaxLingerMillis = bundleMaxLingerMillis;
+    }
+
+    public Long getMaxBufferedBytes() {
+        return maxBufferedBytes == null || maxBufferedBytes <= 0 ? DEFAULT_MAX_BUFFERED_BYTES : maxBufferedBytes;
+    }
+
+    @DataBoundSetter
+    public void setMaxBufferedBytes(Long maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    public ConsolePayloadFormat getPayloadFormat() {
+        return payloadFormat == null ? ConsolePayloadFormat.TEXT : payloadFormat;
+    }
+
+    @DataBoundSetter
+    public void setPayloadFormat(ConsolePayloadFormat payloadFormat) {
+        this.payloadFormat = payloadFormat;
+    }
+
+    public ConsolePayloadCompression getPayloadCompression() {
+        return payloadCompression == null ? ConsolePayloadCompression.NONE : payloadCompression;
+    }
+
+    @DataBoundSetter
+    public void setPayloadCompression(ConsolePayloadCompression payloadCompression) {
+        this.payloadCompression = payloadCompression;
+    }
+
+    public ConsoleOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy == null ? ConsoleOverflowPolicy.DROP_OLDEST : overflowPolicy;
+    }
+
+    @DataBoundSetter
+    public void setOverflowPolicy(ConsoleOverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public Integer getOverflowSampleRate() {
+        return overflowSampleRate == null ? ConsoleStreamPublisher.DEFAULT_SAMPLE_RATE : overflowSampleRate;
+    }
+
+    @DataBoundSetter
+    public void setOverflowSampleRate(Integer overflowSampleRate) {
+        this.overflowSampleRate = overflowSampleRate;
+    }
+
+    public Long getOverflowBlockTimeoutMillis() {
+        return overflowBlockTimeoutMillis == null ? ConsoleStreamPublisher.DEFAULT_BLOCK_TIMEOUT_MILLIS : overflowBlockTimeoutMillis;
+    }
+
+    @DataBoundSetter
+    public void setOverflowBlockTimeoutMillis(Long overflowBlockTimeoutMillis) {
+        this.overflowBlockTimeoutMillis = overflowBlockTimeoutMillis;
+    }
+
     @Extension
     public static class DescriptorImpl extends BuildWrapperDescriptor {
 
@@ -376,5 +602,40 @@ public class RabbitConsoleBuildWrapper extends SimpleBuildWrapper implements Rab
         public boolean isApplicable(AbstractProject<?, ?> item) {
             return true;
         }
+
+        public FormValidation doCheckStartMarkers(@QueryParameter String value) {
+            return checkRules(value);
+        }
+
+        public FormValidation doCheckStopMarkers(@QueryParameter String value) {
+            return checkRules(value);
+        }
+
+        public FormValidation doCheckIncludeFilters(@QueryParameter String value) {
+            return checkRules(value);
+        }
+
+        public FormValidation doCheckExcludeFilters(@QueryParameter String value) {
+            return checkRules(value);
+        }
+
+        private FormValidation checkRules(String value) {
+            for (String rule : ConsoleLineRules.split(value)) {
+                if (rule.startsWith(ConsoleLineRules.REGEX_PREFIX)) {
+                    try {
+                        Pattern.compile(rule.substring(ConsoleLineRules.REGEX_PREFIX.length()));
+                    } catch (PatternSyntaxException e) {
+                        return FormValidation.error("Invalid regular expression: " + e.getDescription());
+                    }
+                }
+            }
+            try {
+                // The rules are also compiled together, check that too.
+                ConsoleLineRules.compile(value, null, null, null);
+            } catch (PatternSyntaxException e) {
+                return FormValidation.error("Invalid regular expression: " + e.getDescription());
+            }
+            return FormValidation.ok();
+        }
     }
 }
@@ -1,9 +1,13 @@
 package com.ziqni.jenkins.plugins.rabbit.console;
 
 import com.rabbitmq.client.AMQP;
+import com.ziqni.jenkins.plugins.rabbit.console.ConsoleStreamPublisher.ConsoleMessage;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.OutboundMessage;
 import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishChannel;
 import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishChannelFactory;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishLane;
 import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishResult;
+import com.ziqni.jenkins.plugins.rabbit.consumer.utils.Utf8Encoder;
 import com.ziqni.jenkins.plugins.rabbit.trigger.RabbitBuildTrigger;
 import com.ziqni.jenkins.plugins.rabbit.utils.MachineIdentifier;
 import com.ziqni.jenkins.plugins.rabbit.utils.RabbitMessageBuilder;
@@ -11,14 +15,23 @@ import com.ziqni.jenkins.plugins.rabbit.utils.Utils;
 import hudson.console.LineTransformationOutputStream;
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.PatternSyntaxException;
 import java.util.logging.Logger;
 
 import static com.ziqni.jenkins.plugins.rabbit.trigger.RabbitBuildPublisher.*;
@@ -28,33 +41,155 @@ public class RabbitConsoleLineLogger extends LineTransformationOutputStream.Dele
 
     private static final Logger LOGGER = Logger.getLogger(RabbitConsoleLineLogger.class.getName());
 
-    private final Run<?,?> run;
+    private final Run<?,?> run; // null on an agent
+    private final ConsoleStreamContext context;
     private final Map<String, String> envVars;
     private final RabbitConsoleBuildWrapper property;
 
     private final boolean hasTemplate;
-    private final boolean hasStartPublishingIfMessageContains;
-    private final boolean hasStopPublishingIfMessageContains;
+    private final ConsoleLineRules rules;
+    private final ConsoleLineNormalizer normalizer; // null if lines are published as written
+    private final boolean collapseRepeats;
 
-    private final List<String> logLines = new LinkedList<>();
+    private final ConsoleBundle bundle;
+    private final ReentrantLock bundleLock = new ReentrantLock();
+    private final long maxBufferedBytes;
     private final AtomicInteger counter = new AtomicInteger(0);
     private final AtomicBoolean remoteLoggingEnabled = new AtomicBoolean(true);
+    private final AtomicLong droppedLines = new AtomicLong(0);
+    private final ConsoleStreamPublisher streamPublisher;
+    private final ConsoleSpillJournal journal;
+    private final RabbitConsoleStreamAction streamAction;
+    private final Supplier<PublishChannel> channels;
+    private final ConsoleStreamRemote remote;
+    private final AgentPublishChannel agentChannel; // null on the controller
+    private final AtomicBoolean replayScheduled = new AtomicBoolean(false);
+    private volatile boolean closed = false;
+
+    // Counters already added to the stream action, only touched under the bundle lock
+    private long reportedLines = 0;
+    private long reportedDroppedLines = 0;
+    private long reportedDroppedMessages = 0;
+    private long reportedCollapsedMessages = 0;
+
+    /**
+     * Interval in millis at which spilled messages are retried while the build is quiet.
+     */
+    static final long REPLAY_INTERVAL_MILLIS = 5000;
+
+    /**
+     * Interval in millis at which an agent sends statistics to the controller.
+     */
+    static final long REMOTE_STATS_INTERVAL_MILLIS = 10000;
+
+    private static volatile ScheduledExecutorService agentScheduler;
 
     public RabbitConsoleLineLogger(OutputStream logger, RabbitConsoleBuildWrapper property, Run<?,?> run, TaskListener listener) throws IOException, InterruptedException {
+        this(logger, property, run, ConsoleStreamContext.of(run, listener), getStreamAction(run),
+                new File(run.getRootDir(), ConsoleSpillJournal.DIR_NAME), PublishChannelFactory::getPublishChannel, null, null);
+    }
+
+    /**
+     * Creates instance that runs in the agent JVM.
+     * Lines are published over a connection owned by the agent, only statistics go to the controller.
+     *
+     * @param logger the underlying logger.
+     * @param property the wrapper.
+     * @param context the context captured on the controller.
+     * @param serviceUri the broker URI.
+     * @param userName the broker user name.
+     * @param remote the controller side of the stream.
+     * @return the logger.
+     * @throws IOException if a rule is invalid.
+     */
+    static RabbitConsoleLineLogger forAgent(OutputStream logger, RabbitConsoleBuildWrapper property, ConsoleStreamContext context,
+                                            String serviceUri, String userName, ConsoleStreamRemote remote) throws IOException {
+        File spillDir = new File(new File(System.getProperty("java.io.tmpdir"), ConsoleSpillJournal.DIR_NAME), UUID.randomUUID().toString());
+        AgentPublishChannel channel = AgentPublishChannel.get(serviceUri, userName, remote::getPassword);
+        try {
+            return new RabbitConsoleLineLogger(logger, property, null, context, new RabbitConsoleStreamAction(), spillDir, () -> channel, remote, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.release();
+            throw e;
+        }
+    }
+
+    private RabbitConsoleLineLogger(OutputStream logger, RabbitConsoleBuildWrapper property, Run<?,?> run, ConsoleStreamContext context,
+                                    RabbitConsoleStreamAction streamAction, File spillDir, Supplier<PublishChannel> channels,
+                                    ConsoleStreamRemote remote, AgentPublishChannel agentChannel) throws IOException {
         super(logger); // Pass the underlying output stream to the superclass
         this.property = property;
         this.run = run;
-        this.envVars = run.getEnvironment(listener);
+        this.context = context;
+        this.envVars = context.getEnvVars();
+        this.channels = channels;
+        this.remote = remote;
+        this.agentChannel = agentChannel;
         this.hasTemplate = property.getTemplate() != null && !property.getTemplate().trim().isEmpty() && !property.getTemplate().contains("$");
 
-        // Check if the property has a stop publishing message
-        this.hasStartPublishingIfMessageContains = property.getStartPublishingIfMessageContains() != null && !property.getStartPublishingIfMessageContains().trim().isEmpty();
+        // Precompile all rules once, lines are matched on raw bytes
+        try {
+            this.rules = property.compileRules();
+        } catch (PatternSyntaxException e) {
+            throw new IOException("Invalid console publishing rule: " + e.getMessage(), e);
+        }
+
+        this.normalizer = Boolean.TRUE.equals(property.getNormalizeConsole()) ? new ConsoleLineNormalizer() : null;
+        this.collapseRepeats = Boolean.TRUE.equals(property.getCollapseRepeatedLines());
 
-        // Check if the property has a stop publishing message
-        this.hasStopPublishingIfMessageContains = property.getStopPublishingIfMessageContains() != null && !property.getStopPublishingIfMessageContains().trim().isEmpty();
+        // If there is no start rule, set the publishing flag to true
+        remoteLoggingEnabled.set(!rules.has(ConsoleLineRules.START));
 
-        // If the property is null or empty, set the publishing flag to true
-        remoteLoggingEnabled.set(!hasStartPublishingIfMessageContains);
+        this.bundle = new ConsoleBundle(property.getBundleMaxLines(), property.getBundleMaxBytes(), property.getBundleMaxLingerMillis());
+        this.maxBufferedBytes = property.getMaxBufferedBytes();
+        this.streamAction = streamAction;
+        this.journal = new ConsoleSpillJournal(spillDir, ConsoleSpillJournal.DEFAULT_SEGMENT_BYTES);
+        this.streamPublisher = new ConsoleStreamPublisher(property.getConsoleQueueCapacity(),
+                property.getOverflowPolicy(), property.getOverflowSampleRate(), property.getOverflowBlockTimeoutMillis(),
+                this::deliver, this::replayJournal);
+
+        if (remote != null) {
+            scheduler().schedule(this::sendRemoteStats, REMOTE_STATS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Gets the scheduler for linger and replay timers.
+     * The Jenkins timer is only used on the controller, an agent gets a scheduler of its own.
+     */
+    static ScheduledExecutorService scheduler() {
+        if (Jenkins.getInstanceOrNull() != null) {
+            return Timer.get();
+        }
+        if (agentScheduler == null) {
+            synchronized (RabbitConsoleLineLogger.class) {
+                if (agentScheduler == null) {
+                    agentScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread t = new Thread(r, "RabbitConsoleTimer");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+            }
+        }
+        return agentScheduler;
+    }
+
+    /**
+     * Gets the stream action of run, attaching it on first use.
+     *
+     * @param run the run.
+     * @return the action.
+     */
+    static RabbitConsoleStreamAction getStreamAction(Run<?, ?> run) {
+        synchronized (run) {
+            RabbitConsoleStreamAction action = run.getAction(RabbitConsoleStreamAction.class);
+            if (action == null) {
+                action = new RabbitConsoleStreamAction();
+                run.addAction(action);
+            }
+            return action;
+        }
     }
 
     @Override
@@ -65,54 +200,65 @@ public class RabbitConsoleLineLogger extends LineTransformationOutputStream.Dele
             out.write(b, 0, len);
 
             // Increment the counter
-            final var lineNumber = counter.incrementAndGet();
+            counter.incrementAndGet();
 
-            // Convert the byte array to a string
-            String line = new String(b, 0, len, StandardCharsets.UTF_8);
-
-            // Trim any end-of-line characters (optional, based on your needs)
-            line = trimEOL(line);
+            // Trim any end-of-line characters without decoding the line
+            int end = len;
+            while (end > 0 && (b[end - 1] == '\n' || b[end - 1] == '\r')) {
+                end--;
+            }
 
-            // Create a new line handler
-            LineHandler lineHandler = new LineHandler(logLines);
+            // True if this line closes the published section
+            boolean endOfSection = false;
 
-            // Do publishing to rabbit
-            boolean publishNow = false;
+            // Rules see the line as it is published, without escape sequences and overwritten progress
+            byte[] line = b;
+            if (normalizer != null) {
+                end = normalizer.normalize(b, end);
+                line = normalizer.getLine();
+            }
 
-            if (!remoteLoggingEnabled.get()) {
-                // Check if the line contains the specified string
-                if (property.getStartPublishingIfMessageContains() != null && line.contains(property.getStartPublishingIfMessageContains())) {
-                    remoteLoggingEnabled.set(true);
+            // Decode only if regex rules need the text, every rule is checked in one pass
+            String text = rules.needsText() ? new String(line, 0, end, StandardCharsets.UTF_8) : null;
+            int matched = rules.match(line, end, text);
 
-                    if(Objects.isNull(property.getExcludeStartLine()) || property.getExcludeStartLine()) {
-                        lineHandler.add(line);
+            bundleLock.lock();
+            try {
+                if (!remoteLoggingEnabled.get()) {
+                    // Check if the line matches a start rule
+                    if ((matched & ConsoleLineRules.START) != 0) {
+                        remoteLoggingEnabled.set(true);
+
+                        if (!Boolean.TRUE.equals(property.getExcludeStartLine())) {
+                            addLine(line, end, text);
+                        }
                     }
-                }
-            }
-            else if (hasStopPublishingIfMessageContains && remoteLoggingEnabled.get() && Objects.nonNull(property.getStopPublishingIfMessageContains())) {
-
-                if (line.contains(property.getStopPublishingIfMessageContains())) {
+                } else if ((matched & ConsoleLineRules.STOP) != 0) {
                     remoteLoggingEnabled.set(false);
-                    publishNow = true;
+                    endOfSection = true;
 
-                    if (Objects.isNull(property.getExcludeStopLine()) || !property.getExcludeStopLine()) {
-                        lineHandler.add(line);
+                    if (!Boolean.TRUE.equals(property.getExcludeStopLine())) {
+                        addLine(line, end, text);
                     }
+                } else if (isIncluded(matched)) {
+                    addLine(line, end, text);
                 }
-            }
 
-            // Process the line if publishing is enabled
-            if (remoteLoggingEnabled.get()) {
-                logLines.add(line);
-            }
+                if (bundle.isEmpty()) {
+                    return;
+                }
 
-            if(lineHandler.hasLines() && !property.getEnableBundling()){
-                publish(run, format(lineHandler));
-            }
-            else if(lineHandler.hasLines() && publishNow){
-                publish(run, format(lineHandler));
+                if (endOfSection || !isBundling() || bundle.isFull() || bundle.isLingerExpired()) {
+                    publish(endOfSection);
+                }
+            } finally {
+                bundleLock.unlock();
             }
 
+        } catch (InterruptedException e) {
+            // The line has already been written, keep the interrupt for the build.
+            Thread.currentThread().interrupt();
+            LOGGER.warning(LOG_HEADER + "Interrupted while queueing line for publish.");
         } catch (Throwable e) {
             LOGGER.warning(LOG_HEADER + "Failed to process line: " + e.getMessage());
             // Make sure the exception doesn't interrupt logging
@@ -125,9 +271,81 @@ public class RabbitConsoleLineLogger extends LineTransformationOutputStream.Dele
         }
     }
 
-    public String format(LineHandler lineHandler) {
+    /**
+     * Gets whether a line inside the published section passes the include and exclude filters.
+     */
+    private boolean isIncluded(int matched) {
+        if ((matched & ConsoleLineRules.EXCLUDE) != 0) {
+            return false;
+        }
+        return !rules.has(ConsoleLineRules.INCLUDE) || (matched & ConsoleLineRules.INCLUDE) != 0;
+    }
+
+    private boolean isBundling() {
+        return Boolean.TRUE.equals(property.getEnableBundling());
+    }
+
+    /**
+     * Adds line to the bundle unless the hard memory cap is reached.
+     * A line equal to the last line of the bundle only increments its repeat count if repeats are collapsed.
+     * This is the only place a line is decoded to text.
+     * Must be called while holding the bundle lock.
+     */
+    private void addLine(byte[] b, int size, String text) {
+        String line = text != null ? text : new String(b, 0, size, StandardCharsets.UTF_8);
+
+        // A repeat takes no space, it is only counted.
+        if (collapseRepeats && bundle.repeatLast(line)) {
+            return;
+        }
+
+        if (streamPublisher.getBufferedBytes() + bundle.getBytes() + size > maxBufferedBytes) {
+            if (droppedLines.getAndIncrement() == 0) {
+                LOGGER.warning(LOG_HEADER + "Console buffer for " + context.getFullDisplayName() + " reached " + maxBufferedBytes + " bytes, lines are dropped.");
+            }
+            return;
+        }
+
+        if (bundle.add(line, size, counter.get()) && isBundling()) {
+            // Make sure a quiet build still delivers its lines.
+            scheduler().schedule(this::flushLingering, bundle.getMaxLingerMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Flushes the bundle if its oldest line waited too long.
+     * This runs on a shared timer thread, so it never blocks on a full queue.
+     */
+    private void flushLingering() {
+        if (!bundleLock.tryLock()) {
+            // The build thread is busy with the bundle, look again later.
+            scheduler().schedule(this::flushLingering, bundle.getMaxLingerMillis(), TimeUnit.MILLISECONDS);
+            return;
+        }
+        try {
+            if (bundle.isEmpty()) {
+                return;
+            }
+            if (!bundle.isLingerExpired()) {
+                scheduler().schedule(this::flushLingering, bundle.getMaxLingerMillis(), TimeUnit.MILLISECONDS);
+                return;
+            }
+            if (!streamPublisher.hasRemainingCapacity()) {
+                // Queue is full, keep the bundle and look again later.
+                LOGGER.fine(LOG_HEADER + "Console queue is full, lingering bundle is kept.");
+                scheduler().schedule(this::flushLingering, bundle.getMaxLingerMillis(), TimeUnit.MILLISECONDS);
+                return;
+            }
+            // Every enqueue happens under the bundle lock, so this offer cannot fail on capacity.
+            streamPublisher.offer(drainBundle(false));
+        } finally {
+            bundleLock.unlock();
+        }
+    }
+
+    public String format(ConsoleBundle bundle) {
 
-        String lines = lineHandler.getLines();
+        String lines = bundle.drain();
 
         if (hasTemplate) {
             String tmp = Utils.injectEnvVars(run, envVars, property.getTemplate());
@@ -143,78 +361,316 @@ public class RabbitConsoleLineLogger extends LineTransformationOutputStream.Dele
         return lines;
     }
 
-    protected void publish(Run<?, ?> run, String lines){
+    /**
+     * Hands the bundle over to the background publisher.
+     * Must be called while holding the bundle lock.
+     *
+     * @param lastOfSection true if publishing stops after this message.
+     * @throws InterruptedException if interrupted while waiting for free space.
+     */
+    protected void publish(boolean lastOfSection) throws InterruptedException {
+        ConsoleMessage message = drainBundle(lastOfSection);
+        // A flood of equal messages collapses into the one still waiting for the worker.
+        if (collapseRepeats && !lastOfSection && streamPublisher.repeatLast(message)) {
+            return;
+        }
+        // The broker round-trip is not done on the build thread.
+        streamPublisher.enqueue(message);
+    }
+
+    /**
+     * Encodes the bundle in the configured payload format then clears it.
+     * Compression is left to the background publisher.
+     * Must be called while holding the bundle lock.
+     */
+    private ConsoleMessage drainBundle(boolean lastOfSection) {
+        long size = bundle.getBytes();
+        int lines = bundle.size();
+        updateStats();
+        byte[] body;
+        if (property.getPayloadFormat() == ConsolePayloadFormat.FRAMED) {
+            body = ConsolePayloadCodec.drainFrame(bundle);
+        } else if (hasTemplate) {
+            body = format(bundle).getBytes(StandardCharsets.UTF_8);
+        } else {
+            // Encoded straight from the joined lines, large bundles are not copied into a String first.
+            body = Utf8Encoder.encode(bundle.drainText());
+        }
+        return new ConsoleMessage(body, counter.get(), lines, lastOfSection, size);
+    }
+
+    /**
+     * Adds what the build thread and the publisher counted since the last call to the stream action.
+     * Must be called while holding the bundle lock.
+     */
+    private void updateStats() {
+        long lines = counter.get();
+        long dropped = droppedLines.get() + streamPublisher.getDroppedLines();
+        long droppedMessages = streamPublisher.getDroppedMessages();
+        long collapsed = streamPublisher.getCollapsedMessages();
+        streamAction.onLinesSeen(lines - reportedLines);
+        streamAction.onOverflow(dropped - reportedDroppedLines, droppedMessages - reportedDroppedMessages, collapsed - reportedCollapsedMessages);
+        reportedLines = lines;
+        reportedDroppedLines = dropped;
+        reportedDroppedMessages = droppedMessages;
+        reportedCollapsedMessages = collapsed;
+    }
+
+    /**
+     * Sends the statistics collected on the agent to the controller.
+     */
+    private void sendRemoteStats() {
+        try {
+            remote.merge(streamAction.drain());
+        } catch (RuntimeException e) {
+            LOGGER.fine(LOG_HEADER + "Failed to send console statistics to the controller: " + e.getMessage());
+        }
+        if (!closed) {
+            scheduler().schedule(this::sendRemoteStats, REMOTE_STATS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
 
-        if(!remoteLoggingEnabled.get())
+    /**
+     * Publishes a batch of messages drained from the console stream, or spills them to the journal
+     * if the publish channel is unavailable.
+     * This is called from the background publisher.
+     */
+    private void deliver(List<ConsoleMessage> batch) {
+        // Nothing overtakes spilled messages, replay them first.
+        if (!journal.isEmpty()) {
+            replayJournal();
+        }
+        if (!journal.isEmpty()) {
+            for (ConsoleMessage message : batch) {
+                spill(message);
+            }
             return;
+        }
+        boolean[] sent = send(batch);
+        for (int i = 0; i < sent.length; i++) {
+            if (!sent[i]) {
+                spill(batch.get(i));
+            }
+        }
+    }
+
+    private void spill(ConsoleMessage message) {
+        try {
+            if (journal.isEmpty()) {
+                LOGGER.warning(LOG_HEADER + "Publish channel is unavailable, console of " + context.getFullDisplayName() + " is spilled to disk.");
+            }
+            journal.append(message);
+            streamAction.onSpilled(message.getLineCount());
+            scheduleReplay();
+        } catch (IOException e) {
+            LOGGER.warning(LOG_HEADER + "Failed to spill console message, " + message.getLineCount() + " lines are lost: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replays spilled messages in order while the publish channel accepts them.
+     * This is called from the background publisher.
+     */
+    private void replayJournal() {
+        if (journal.isEmpty()) {
+            return;
+        }
+        try {
+            int replayed = journal.replay(message -> {
+                if (!send(message)) {
+                    return false;
+                }
+                streamAction.onReplayed(message.getLineCount());
+                return true;
+            });
+            if (replayed > 0 && journal.isEmpty()) {
+                LOGGER.info(LOG_HEADER + "Replayed spilled console of " + context.getFullDisplayName() + ", " + streamAction.getReplayedLines() + " lines in total.");
+            }
+        } catch (IOException e) {
+            LOGGER.warning(LOG_HEADER + "Failed to replay console spill journal: " + e.getMessage());
+        }
+    }
+
+    private void scheduleReplay() {
+        if (replayScheduled.compareAndSet(false, true)) {
+            scheduler().schedule(this::wakeUpReplay, REPLAY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Wakes the background publisher up so that a quiet build still replays its journal.
+     */
+    private void wakeUpReplay() {
+        replayScheduled.set(false);
+        if (closed || journal.isEmpty()) {
+            return;
+        }
+        streamPublisher.wakeUp();
+        scheduleReplay();
+    }
+
+    /**
+     * Publishes message drained from the console stream.
+     * This is called from the background publisher.
+     *
+     * @param message the message.
+     * @return true if the message was published.
+     */
+    protected boolean send(ConsoleMessage message) {
+        return send(Collections.singletonList(message))[0];
+    }
 
+    /**
+     * Publishes messages drained from the console stream as one batch, then waits once for all of them.
+     * This is called from the background publisher.
+     *
+     * @param messages the messages.
+     * @return whether each message was published.
+     */
+    private boolean[] send(List<ConsoleMessage> messages) {
+        boolean[] sent = new boolean[messages.size()];
+        PublishChannel ch = channels.get();
+        if (ch == null || !ch.isOpen()) {
+            return sent;
+        }
+
+        List<OutboundMessage> batch = new ArrayList<>(messages.size());
+        for (ConsoleMessage message : messages) {
+            batch.add(toOutbound(message));
+        }
+
+        // Wait until the batch is published, this only parks the background publisher.
+        // A batch that times out is spilled and may be published twice.
+        List<PublishResult> results;
+        try {
+            results = ch.publishAll(batch, PublishLane.BULK).get(PublishChannel.DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return sent;
+        } catch (Exception e) {
+            LOGGER.fine(LOG_HEADER + "Failed to publish console messages: " + e.getMessage());
+            for (ConsoleMessage message : messages) {
+                streamAction.onFailed(message.getLineCount());
+            }
+            return sent;
+        }
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < sent.length; i++) {
+            ConsoleMessage message = messages.get(i);
+            if (results.get(i).isSuccess()) {
+                streamAction.onPublished(message.getLineCount(), message.getSize(), batch.get(i).getBody().length,
+                        now - message.getCreatedAt());
+                sent[i] = true;
+            } else {
+                LOGGER.fine(LOG_HEADER + "Failed to publish console message ending at line " + message.getLineNumber());
+                streamAction.onFailed(message.getLineCount());
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Builds the AMQP message of a console message.
+     */
+    private OutboundMessage toOutbound(ConsoleMessage message) {
         // Headers
         Map<String,Object> headers = new HashMap<>();
         // Add a header with the line number
-        headers.put("line-number", counter.get());
+        headers.put("line-number", message.getLineNumber());
         // Add a header with the job name
-        headers.put("job-name", this.run.getNumber());
+        headers.put("job-name", context.getBuildNumber());
         // Add a header with the display name of the run
-        headers.put("display-name", this.run.getDisplayName());
+        headers.put("display-name", context.getDisplayName());
         // Add a header to stop the message from being displayed in the console
-        headers.put("stop-message-console", remoteLoggingEnabled.get() ? "false" : "true");
+        headers.put("stop-message-console", message.isLastOfSection() ? "true" : "false");
         // Add a header with the display name of the run
         headers.put(HEADER_MACHINE_ID, MachineIdentifier.getUniqueMachineId());
+        // Add a header with the number of equal messages collapsed into this one
+        if (message.getRepeats() > 0) {
+            headers.put("repeat-count", message.getRepeats());
+        }
 
         // Basic property
         AMQP.BasicProperties.Builder builder = RabbitMessageBuilder.build(new AMQP.BasicProperties.Builder(), this.property, headers, in -> Utils.injectEnvVars(run, envVars, in) );
 
         builder.appId(RabbitBuildTrigger.PLUGIN_APPID);
-        builder.contentType(TEXT_CONTENT_TYPE);
-
-        // Publish message
-        PublishChannel ch = PublishChannelFactory.getPublishChannel();
-        if (ch != null && ch.isOpen()) {
-            // return value is not needed if you don't need to wait.
-            Future<PublishResult> future = ch.publish(
-                    this.property.getExchangeName(),
-                    Utils.injectEnvVars(run, envVars, this.property.getRoutingKey()),
-                    builder.build(),
-                    lines.getBytes(StandardCharsets.UTF_8)
-            );
-
-            // Wait until publish is completed.
-            try {
-                PublishResult result = future.get();
+        builder.contentType(property.getPayloadFormat() == ConsolePayloadFormat.FRAMED ? ConsolePayloadCodec.FRAME_CONTENT_TYPE : TEXT_CONTENT_TYPE);
+
+        // Compress on the background publisher, the encoding tells consumers how to read the body
+        ConsolePayloadCompression compression = property.getPayloadCompression();
+        byte[] body;
+        try {
+            body = ConsolePayloadCodec.compress(message.getBody(), compression);
+        } catch (IOException e) {
+            LOGGER.warning(LOG_HEADER + "Failed to compress console message, it is sent uncompressed: " + e.getMessage());
+            body = message.getBody();
+            compression = ConsolePayloadCompression.NONE;
+        }
+        if (compression.getContentEncoding() != null) {
+            builder.contentEncoding(compression.getContentEncoding());
+        }
+
+        return new OutboundMessage(
+                this.property.getExchangeName(),
+                Utils.injectEnvVars(run, envVars, this.property.getRoutingKey()),
+                builder.build(),
+                body
+        );
+    }
 
-                if (!result.isSuccess()) {
-                    LOGGER.warning(LOG_HEADER + "Failed to publish message: " + lines);
+    /**
+     * Flushes the remaining console messages before the run completes.
+     *
+     * @throws IOException if the underlying logger cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+            bundleLock.lock();
+            try {
+                if (!bundle.isEmpty()) {
+                    publish(false);
                 }
-            } catch (Exception e) {
-                LOGGER.warning(e.getMessage());
+            } finally {
+                bundleLock.unlock();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closed = true;
+            // The journal is only touched by the worker, even if this times out.
+            streamPublisher.close(ConsoleStreamPublisher.DEFAULT_CLOSE_TIMEOUT_MILLIS, this::finish);
         }
     }
 
-    static class LineHandler {
-
-        final List<String> logLines;
-        boolean lineAdded = false;
-
-        LineHandler(List<String> logLines) {
-            this.logLines = logLines;
+    /**
+     * Replays what is left in the journal and reports the final statistics.
+     * This is run by the background publisher after the last batch.
+     */
+    private void finish() {
+        bundleLock.lock();
+        try {
+            updateStats();
+        } finally {
+            bundleLock.unlock();
         }
-
-        public void add(String line){
-            if (!lineAdded) {
-                lineAdded = logLines.add(line);
-            }
+        // Last chance for spilled lines, whatever is left stays in the build directory.
+        replayJournal();
+        if (agentChannel != null) {
+            // Nobody replays the temporary directory of an agent.
+            journal.discard();
+        } else {
+            journal.close();
         }
-
-        public boolean hasLines(){
-            return !logLines.isEmpty();
+        if (remote != null) {
+            sendRemoteStats();
         }
-
-        public String getLines(){
-            String lines = String.join("\n", logLines);
-            logLines.clear();
-            return lines;
+        if (agentChannel != null) {
+            agentChannel.release();
         }
+        // The run may have been saved before the last counters came in.
+        streamAction.saveIfCompleted();
     }
-
 }
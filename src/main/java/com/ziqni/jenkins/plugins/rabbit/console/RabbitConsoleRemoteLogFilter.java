@@ -0,0 +1,159 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.ziqni.jenkins.plugins.rabbit.configuration.RabbitConfiguration;
+import hudson.console.ConsoleLogFilter;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.Channel;
+import hudson.util.Secret;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.logging.Logger;
+
+import static com.ziqni.jenkins.plugins.rabbit.trigger.RabbitBuildPublisher.LOG_HEADER;
+
+/**
+ * Log filter that can be shipped to the agent running the build.
+ *
+ * Pipeline sends serializable filters to the agent and applies them there, so console
+ * lines of steps running on the agent are filtered and published by the agent itself.
+ * The controller only receives statistics. Output produced on the controller is handled
+ * like {@link RabbitConsoleLogFilter} does.
+ *
+ * Agents publish with the agent credentials of the global configuration, the credentials
+ * of the controller never leave it.
+ */
+public class RabbitConsoleRemoteLogFilter extends ConsoleLogFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(RabbitConsoleRemoteLogFilter.class.getName());
+
+    private final RabbitConsoleBuildWrapper property;
+    private final ConsoleStreamContext context;
+    private final String serviceUri;
+    private final String userName;
+    private final String runId;
+    private final ConsoleStreamRemote remote;
+    // Only set once the filter was read from a remoting channel, i.e. on the agent.
+    private transient boolean shipped;
+
+    /**
+     * Creates instance on the controller.
+     *
+     * @param property the wrapper.
+     * @param run the run.
+     * @throws IOException if the environment cannot be read or no agent credentials are configured.
+     * @throws InterruptedException if interrupted while reading the environment.
+     */
+    public RabbitConsoleRemoteLogFilter(RabbitConsoleBuildWrapper property, Run<?, ?> run) throws IOException, InterruptedException {
+        RabbitConfiguration config = RabbitConfiguration.get();
+        StandardUsernamePasswordCredentials credentials = config.getAgentCredentials();
+        if (credentials == null) {
+            throw new IOException("No agent credentials are configured.");
+        }
+        this.property = property;
+        this.context = ConsoleStreamContext.of(run, TaskListener.NULL);
+        this.serviceUri = config.getServiceUri();
+        this.userName = credentials.getUsername();
+        this.runId = run.getExternalizableId();
+        this.remote = new ControllerRemote(runId, credentials.getId());
+    }
+
+    private RabbitConsoleRemoteLogFilter(RabbitConsoleRemoteLogFilter filter, ConsoleStreamRemote remote) {
+        this.property = filter.property;
+        this.context = filter.context;
+        this.serviceUri = filter.serviceUri;
+        this.userName = filter.userName;
+        this.runId = filter.runId;
+        this.remote = remote;
+    }
+
+    @Override
+    public OutputStream decorateLogger(Run run, OutputStream logger) throws IOException, InterruptedException {
+        if (shipped) {
+            return RabbitConsoleLineLogger.forAgent(logger, property, context, serviceUri, userName, remote);
+        }
+        // On the controller, Pipeline may not pass the run.
+        Run<?, ?> r = run != null ? run : runId != null ? Run.fromExternalizableId(runId) : null;
+        if (r == null) {
+            LOGGER.warning(LOG_HEADER + "Run " + runId + " is not found, console is not published.");
+            return logger;
+        }
+        return new RabbitConsoleLineLogger(logger, property, r, TaskListener.NULL);
+    }
+
+    /**
+     * Replaces the controller side by a remoting proxy when the filter is sent to an agent.
+     * Outside remoting, e.g. when the pipeline is persisted, nothing is exported.
+     */
+    private Object writeReplace() {
+        Channel channel = Channel.current();
+        if (channel == null || !(remote instanceof ControllerRemote)) {
+            return this;
+        }
+        return new RabbitConsoleRemoteLogFilter(this, channel.export(ConsoleStreamRemote.class, remote));
+    }
+
+    /**
+     * Marks the filter as shipped if it was read from remoting.
+     * A filter read back with the persisted pipeline stays on the controller.
+     */
+    private Object readResolve() {
+        shipped = Channel.current() != null;
+        if (shipped) {
+            AgentPublishChannel.closeOnDisconnect(Channel.current());
+        }
+        return this;
+    }
+
+    /**
+     * Controller side of the stream.
+     * It is only serialized when the pipeline is persisted, so the run is looked up by id.
+     */
+    private static final class ControllerRemote implements ConsoleStreamRemote, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String runId;
+        private final String credentialsId;
+        private transient RabbitConsoleStreamAction action;
+
+        ControllerRemote(String runId, String credentialsId) {
+            this.runId = runId;
+            this.credentialsId = credentialsId;
+        }
+
+        @Override
+        public void merge(RabbitConsoleStreamAction delta) {
+            RabbitConsoleStreamAction target = getAction();
+            if (target != null) {
+                target.merge(delta);
+                target.saveIfCompleted();
+            }
+        }
+
+        private synchronized RabbitConsoleStreamAction getAction() {
+            if (action == null) {
+                Run<?, ?> run = Run.fromExternalizableId(runId);
+                if (run != null) {
+                    action = RabbitConsoleLineLogger.getStreamAction(run);
+                }
+            }
+            return action;
+        }
+
+        @Override
+        public String getPassword() {
+            // Looked up again, the agent credentials may have been removed or replaced since.
+            StandardUsernamePasswordCredentials credentials = RabbitConfiguration.get().getAgentCredentials();
+            if (credentials == null || !credentials.getId().equals(credentialsId)) {
+                return null;
+            }
+            return Secret.toString(credentials.getPassword());
+        }
+    }
+}
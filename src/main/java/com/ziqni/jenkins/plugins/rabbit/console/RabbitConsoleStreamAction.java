@@ -0,0 +1,390 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records what happened to the console stream of a run.
+ * Counters are updated live by the console publisher and persisted with the run.
+ * The last counters arrive in the background after the run may have completed and
+ * been saved, {@link #saveIfCompleted()} saves it again for them.
+ * The action is shown on the build page and exported to the remote API.
+ * A detached instance is used on agents to collect counters that are merged into the run later.
+ */
+@ExportedBean
+public class RabbitConsoleStreamAction implements RunAction2, Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = Logger.getLogger(RabbitConsoleStreamAction.class.getName());
+
+    /**
+     * Number of latency buckets. Bucket 0 counts publishes under 1 ms, bucket i counts
+     * publishes from 2^(i-1) ms to 2^i ms, the last bucket counts everything slower.
+     */
+    static final int LATENCY_BUCKETS = 16;
+
+    private transient Run<?, ?> run;
+
+    private long linesSeen;
+    private long linesPublished;
+    private long bytesPublished;
+    private long wireBytesPublished;
+    private long messagesPublished;
+    private long linesFailed;
+    private long messagesFailed;
+    private long spilledLines;
+    private long spilledMessages;
+    private long replayedLines;
+    private long replayedMessages;
+    private long droppedLines;
+    private long droppedMessages;
+    private long collapsedMessages;
+    private long maxLatencyMillis;
+    private long totalLatencyMillis;
+    private long[] latencyBuckets = new long[LATENCY_BUCKETS];
+
+    @Override
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "RabbitMQ Console Stream";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "rabbit-console-stream";
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> run) {
+        this.run = run;
+        if (latencyBuckets == null) {
+            latencyBuckets = new long[LATENCY_BUCKETS];
+        }
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    /**
+     * Gets the number of lines written to the console.
+     *
+     * @return the number of lines.
+     */
+    @Exported
+    public synchronized long getLinesSeen() {
+        return linesSeen;
+    }
+
+    /**
+     * Gets the number of lines published to the broker, including replayed ones.
+     *
+     * @return the number of lines.
+     */
+    @Exported
+    public synchronized long getLinesPublished() {
+        return linesPublished;
+    }
+
+    /**
+     * Gets the size of published lines in bytes, before encoding and compression.
+     *
+     * @return the number of bytes.
+     */
+    @Exported
+    public synchronized long getBytesPublished() {
+        return bytesPublished;
+    }
+
+    /**
+     * Gets the size of published message bodies in bytes, as sent to the broker.
+     *
+     * @return the number of bytes.
+     */
+    @Exported
+    public synchronized long getWireBytesPublished() {
+        return wireBytesPublished;
+    }
+
+    @Exported
+    public synchronized long getMessagesPublished() {
+        return messagesPublished;
+    }
+
+    /**
+     * Gets the number of lines in messages the broker did not accept.
+     *
+     * @return the number of lines.
+     */
+    @Exported
+    public synchronized long getLinesFailed() {
+        return linesFailed;
+    }
+
+    @Exported
+    public synchronized long getMessagesFailed() {
+        return messagesFailed;
+    }
+
+    /**
+     * Gets the number of lines written to the spill journal.
+     *
+     * @return the number of lines.
+     */
+    @Exported
+    public synchronized long getSpilledLines() {
+        return spilledLines;
+    }
+
+    @Exported
+    public synchronized long getSpilledMessages() {
+        return spilledMessages;
+    }
+
+    /**
+     * Gets the number of spilled lines published after the channel came back.
+     *
+     * @return the number of lines.
+     */
+    @Exported
+    public synchronized long getReplayedLines() {
+        return replayedLines;
+    }
+
+    @Exported
+    public synchronized long getReplayedMessages() {
+        return replayedMessages;
+    }
+
+    /**
+     * Gets the number of spilled lines that were never published.
+     *
+     * @return the number of lines.
+     */
+    @Exported
+    public synchronized long getPendingLines() {
+        return spilledLines - replayedLines;
+    }
+
+    /**
+     * Gets the number of lines dropped by the overflow policy or the memory cap.
+     *
+     * @return the number of lines.
+     */
+    @Exported
+    public synchronized long getDroppedLines() {
+        return droppedLines;
+    }
+
+    @Exported
+    public synchronized long getDroppedMessages() {
+        return droppedMessages;
+    }
+
+    /**
+     * Gets the number of messages collapsed into the repeat count of an equal message.
+     *
+     * @return the number of messages.
+     */
+    @Exported
+    public synchronized long getCollapsedMessages() {
+        return collapsedMessages;
+    }
+
+    /**
+     * Gets the slowest time from a message being queued to the broker accepting it.
+     *
+     * @return the latency in millis.
+     */
+    @Exported
+    public synchronized long getMaxLatencyMillis() {
+        return maxLatencyMillis;
+    }
+
+    /**
+     * Gets the average time from a message being queued to the broker accepting it.
+     *
+     * @return the latency in millis.
+     */
+    @Exported
+    public synchronized long getAverageLatencyMillis() {
+        return messagesPublished == 0 ? 0 : totalLatencyMillis / messagesPublished;
+    }
+
+    /**
+     * Gets the publish latency histogram.
+     *
+     * @return the buckets, from fastest to slowest.
+     */
+    @Exported
+    public synchronized List<LatencyBucket> getLatencyHistogram() {
+        List<LatencyBucket> list = new ArrayList<>(LATENCY_BUCKETS);
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            list.add(new LatencyBucket(i == 0 ? 0 : 1L << (i - 1), i == LATENCY_BUCKETS - 1 ? -1 : 1L << i, latencyBuckets[i]));
+        }
+        return list;
+    }
+
+    /**
+     * Gets the bucket of latency.
+     *
+     * @param latencyMillis the latency in millis.
+     * @return the bucket index.
+     */
+    static int bucketOf(long latencyMillis) {
+        if (latencyMillis < 1) {
+            return 0;
+        }
+        return Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(latencyMillis));
+    }
+
+    synchronized void onLinesSeen(long lines) {
+        linesSeen += lines;
+    }
+
+    synchronized void onPublished(int lines, long bytes, long wireBytes, long latencyMillis) {
+        linesPublished += lines;
+        bytesPublished += bytes;
+        wireBytesPublished += wireBytes;
+        messagesPublished++;
+        latencyMillis = Math.max(0, latencyMillis);
+        totalLatencyMillis += latencyMillis;
+        maxLatencyMillis = Math.max(maxLatencyMillis, latencyMillis);
+        latencyBuckets[bucketOf(latencyMillis)]++;
+    }
+
+    synchronized void onFailed(int lines) {
+        linesFailed += lines;
+        messagesFailed++;
+    }
+
+    synchronized void onSpilled(int lines) {
+        spilledLines += lines;
+        spilledMessages++;
+    }
+
+    synchronized void onReplayed(int lines) {
+        replayedLines += lines;
+        replayedMessages++;
+    }
+
+    synchronized void onOverflow(long lines, long messages, long collapsed) {
+        droppedLines += lines;
+        droppedMessages += messages;
+        collapsedMessages += collapsed;
+    }
+
+    /**
+     * Adds all counters of other.
+     *
+     * @param other the counters to add.
+     */
+    public synchronized void merge(RabbitConsoleStreamAction other) {
+        linesSeen += other.linesSeen;
+        linesPublished += other.linesPublished;
+        bytesPublished += other.bytesPublished;
+        wireBytesPublished += other.wireBytesPublished;
+        messagesPublished += other.messagesPublished;
+        linesFailed += other.linesFailed;
+        messagesFailed += other.messagesFailed;
+        spilledLines += other.spilledLines;
+        spilledMessages += other.spilledMessages;
+        replayedLines += other.replayedLines;
+        replayedMessages += other.replayedMessages;
+        droppedLines += other.droppedLines;
+        droppedMessages += other.droppedMessages;
+        collapsedMessages += other.collapsedMessages;
+        maxLatencyMillis = Math.max(maxLatencyMillis, other.maxLatencyMillis);
+        totalLatencyMillis += other.totalLatencyMillis;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            latencyBuckets[i] += other.latencyBuckets[i];
+        }
+    }
+
+    /**
+     * Saves the run if it has completed.
+     * A run that is still building saves the counters itself when it completes.
+     */
+    void saveIfCompleted() {
+        Run<?, ?> r = run;
+        if (r == null || r.isBuilding()) {
+            return;
+        }
+        try {
+            r.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save console statistics of " + r, e);
+        }
+    }
+
+    /**
+     * Moves all counters into a new instance, this one starts over from zero.
+     *
+     * @return the counters collected so far.
+     */
+    synchronized RabbitConsoleStreamAction drain() {
+        RabbitConsoleStreamAction delta = new RabbitConsoleStreamAction();
+        delta.merge(this);
+        linesSeen = linesPublished = bytesPublished = wireBytesPublished = messagesPublished = 0;
+        linesFailed = messagesFailed = spilledLines = spilledMessages = replayedLines = replayedMessages = 0;
+        droppedLines = droppedMessages = collapsedMessages = maxLatencyMillis = totalLatencyMillis = 0;
+        latencyBuckets = new long[LATENCY_BUCKETS];
+        return delta;
+    }
+
+    /**
+     * A bucket of the publish latency histogram.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class LatencyBucket {
+
+        /**
+         * The inclusive lower bound in millis.
+         */
+        @Exported
+        public final long lowerBoundMillis;
+        /**
+         * The exclusive upper bound in millis, -1 for the last bucket.
+         */
+        @Exported
+        public final long upperBoundMillis;
+        @Exported
+        public final long count;
+
+        LatencyBucket(long lowerBoundMillis, long upperBoundMillis, long count) {
+            this.lowerBoundMillis = lowerBoundMillis;
+            this.upperBoundMillis = upperBoundMillis;
+            this.count = count;
+        }
+
+        public long getLowerBoundMillis() {
+            return lowerBoundMillis;
+        }
+
+        public long getUpperBoundMillis() {
+            return upperBoundMillis;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
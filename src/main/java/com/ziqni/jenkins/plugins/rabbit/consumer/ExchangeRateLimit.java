@@ -0,0 +1,108 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer;
+
+import hudson.Extension;
+import hudson.model.Describable;
+import hudson.model.Descriptor;
+import jenkins.model.Jenkins;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.Objects;
+
+/**
+ * Item class that indicates publish rate limit of an exchange in global configuration.
+ */
+public class ExchangeRateLimit implements Describable<ExchangeRateLimit> {
+
+    private final String exchangeName;
+    private final long messagesPerSecond;
+    private final long bytesPerSecond;
+
+    /**
+     * Creates instance with specific parameters.
+     *
+     * @param exchangeName
+     *            the exchange name, empty for the default exchange.
+     * @param messagesPerSecond
+     *            the maximum number of messages per second, 0 if unbounded.
+     * @param bytesPerSecond
+     *            the maximum number of body bytes per second, 0 if unbounded.
+     */
+    @DataBoundConstructor
+    public ExchangeRateLimit(String exchangeName, long messagesPerSecond, long bytesPerSecond) {
+        this.exchangeName = StringUtils.strip(StringUtils.defaultString(exchangeName));
+        this.messagesPerSecond = Math.max(0, messagesPerSecond);
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+    }
+
+    /**
+     * Gets exchange name.
+     *
+     * @return the exchange name.
+     */
+    public String getExchangeName() {
+        return exchangeName;
+    }
+
+    /**
+     * Gets the maximum number of messages per second.
+     *
+     * @return the number of messages, 0 if unbounded.
+     */
+    public long getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    /**
+     * Gets the maximum number of body bytes per second.
+     *
+     * @return the number of bytes, 0 if unbounded.
+     */
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Descriptor<ExchangeRateLimit> getDescriptor() {
+        return Jenkins.get().getDescriptorOrDie(getClass());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ExchangeRateLimit that = (ExchangeRateLimit) o;
+        return messagesPerSecond == that.messagesPerSecond && bytesPerSecond == that.bytesPerSecond
+                && Objects.equals(exchangeName, that.exchangeName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(exchangeName, messagesPerSecond, bytesPerSecond);
+    }
+
+    @Override
+    public String toString() {
+        return "ExchangeRateLimit{" +
+                "exchangeName='" + exchangeName + '\'' +
+                ", messagesPerSecond=" + messagesPerSecond +
+                ", bytesPerSecond=" + bytesPerSecond +
+                '}';
+    }
+
+    /**
+     * Implements descriptor for parent class.
+     */
+    @Extension
+    public static class DescriptorImpl extends Descriptor<ExchangeRateLimit> {
+        @Override
+        public String getDisplayName() {
+            return "";
+        }
+    }
+}
@@ -5,7 +5,10 @@ import com.ziqni.jenkins.plugins.rabbit.configuration.RabbitConfiguration;
 import hudson.util.Secret;
 import com.ziqni.jenkins.plugins.rabbit.consumer.channels.AbstractRMQChannel;
 import com.ziqni.jenkins.plugins.rabbit.consumer.channels.ConsumeRMQChannel;
+import com.ziqni.jenkins.plugins.rabbit.consumer.channels.PublishChannelPool;
 import com.ziqni.jenkins.plugins.rabbit.consumer.channels.PublishRMQChannel;
+import com.ziqni.jenkins.plugins.rabbit.consumer.channels.PublishRateLimiter;
+import com.ziqni.jenkins.plugins.rabbit.consumer.channels.TopologyCache;
 import com.ziqni.jenkins.plugins.rabbit.consumer.events.RMQConnectionEvent;
 import com.ziqni.jenkins.plugins.rabbit.consumer.listeners.RMQChannelListener;
 import com.ziqni.jenkins.plugins.rabbit.consumer.listeners.RMQConnectionListener;
@@ -18,7 +21,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
@@ -39,6 +45,9 @@ public class RabbitConnection implements ShutdownListener, RMQChannelListener, R
     private final ConnectionFactory factory;
     private Connection connection = null;
     private final Collection<AbstractRMQChannel> rmqChannels = new CopyOnWriteArraySet<AbstractRMQChannel>();
+    private final PublishChannelPool publishChannelPool = new PublishChannelPool();
+    private TopologyCache topologyCache = new TopologyCache();
+    private final PublishRateLimiter rateLimiter = new PublishRateLimiter();
     private final Collection<RMQConnectionListener> rmqConnectionListeners = new CopyOnWriteArraySet<RMQConnectionListener>();
     private volatile RabbitState state = RabbitState.DISCONNECTED;
 
@@ -169,6 +178,24 @@ public class RabbitConnection implements ShutdownListener, RMQChannelListener, R
         return channels;
     }
 
+    /**
+     * Gets the pool of publish channels.
+     *
+     * @return the pool.
+     */
+    public PublishChannelPool getPublishChannelPool() {
+        return publishChannelPool;
+    }
+
+    /**
+     * Sets the cache of declared topology.
+     *
+     * @param topologyCache the cache, kept by the caller across connections.
+     */
+    public void setTopologyCache(TopologyCache topologyCache) {
+        this.topologyCache = topologyCache;
+    }
+
     /**
      * Gets status of channel binds specified queue.
      *
@@ -178,8 +205,8 @@ public class RabbitConnection implements ShutdownListener, RMQChannelListener, R
      */
     public boolean getConsumeChannelStatus(String queueName) {
         for (ConsumeRMQChannel ch : getConsumeRMQChannels()) {
-            if (ch.getQueueName().equals(queueName)) {
-                return ch.isConsumeStarted();
+            if (ch.getQueueName().equals(queueName) && ch.isConsumeStarted()) {
+                return true;
             }
         }
         return false;
@@ -270,6 +297,7 @@ public class RabbitConnection implements ShutdownListener, RMQChannelListener, R
      */
     public void updateChannels(Collection<RabbitMqConsumeItem> consumeItems) {
         Collection<String> uniqueQueueNames = new HashSet<String>();
+        Map<String, Integer> consumerCounts = new HashMap<String, Integer>();
 
         updatePublishChannel();
 
@@ -279,11 +307,14 @@ public class RabbitConnection implements ShutdownListener, RMQChannelListener, R
             // generate unique queue name set
             for (RabbitMqConsumeItem i : consumeItems) {
                 uniqueQueueNames.add(i.getQueueName());
+                if (i.getQueueName() != null) {
+                    consumerCounts.merge(i.getQueueName(), i.getConsumerCount(), Math::max);
+                }
             }
             uniqueQueueNames.remove(null);
 
             // close unused channels
-            closeUnusedConsumeChannels(uniqueQueueNames);
+            closeUnusedConsumeChannels(consumerCounts);
 
             // create channels
             createNewConsumeChannels(uniqueQueueNames, consumeItems);
@@ -307,35 +338,50 @@ public class RabbitConnection implements ShutdownListener, RMQChannelListener, R
         if (uniqueQueueNames == null || consumeItems == null || uniqueQueueNames.isEmpty() || consumeItems.isEmpty()) {
             LOGGER.info("No create new channel due to empty.");
         } else {
-            Collection<String> existingQueueNames = new HashSet<String>();
+            Map<String, Collection<Integer>> existingConsumers = new HashMap<String, Collection<Integer>>();
 
-            // get existing channel name set
+            // get existing consumers of each queue
             for (ConsumeRMQChannel h : getConsumeRMQChannels()) {
-                existingQueueNames.add(h.getQueueName());
+                existingConsumers.computeIfAbsent(h.getQueueName(), k -> new HashSet<Integer>())
+                        .add(h.getConsumerIndex());
             }
 
             // create non-existing channels
             for (String queueName : uniqueQueueNames) {
-                if (!existingQueueNames.contains(queueName)) {
-                    Collection<String> appIds = new HashSet<String>();
-                    for (RabbitMqConsumeItem i : consumeItems) {
-                        if (queueName.equals(i.getQueueName())) {
-                            appIds.add(i.getAppId());
-                        }
+                Collection<String> appIds = new HashSet<String>();
+                // Items of the same queue share its consumers, the largest counts and the earliest acks win.
+                int consumerCount = 0;
+                int prefetchCount = 0;
+                int ackBatchSize = Integer.MAX_VALUE;
+                long ackIntervalMillis = Long.MAX_VALUE;
+                for (RabbitMqConsumeItem i : consumeItems) {
+                    if (queueName.equals(i.getQueueName())) {
+                        appIds.add(i.getAppId());
+                        consumerCount = Math.max(consumerCount, i.getConsumerCount());
+                        prefetchCount = Math.max(prefetchCount, i.getPrefetchCount());
+                        ackBatchSize = Math.min(ackBatchSize, i.getAckBatchSize());
+                        ackIntervalMillis = Math.min(ackIntervalMillis, i.getAckIntervalMillis());
+                    }
+                }
+                appIds.remove(RabbitConfiguration.CONTENT_NONE);
+                if (appIds.isEmpty()) {
+                    continue;
+                }
+                Collection<Integer> existing = existingConsumers.getOrDefault(queueName, Collections.<Integer>emptySet());
+                for (int index = 0; index < consumerCount; index++) {
+                    if (existing.contains(index)) {
+                        continue;
                     }
-                    appIds.remove(RabbitConfiguration.CONTENT_NONE);
-                    if (!appIds.isEmpty()) {
-                        ConsumeRMQChannel ch = new ConsumeRMQChannel(queueName, appIds);
-                        ch.addRMQChannelListener(this);
-                        try {
-                            ch.open(connection);
-                            rmqChannels.add(ch);
-                        } catch (IOException e) {
-                            LOGGER.warn("Failed to open consume channel for {}.", queueName);
-                            LOGGER.warn("Exception: {}", e);
-                            ch.removeRMQChannelListener(this);
-                            continue;
-                        }
+                    ConsumeRMQChannel ch = new ConsumeRMQChannel(queueName, index, appIds,
+                            prefetchCount, ackBatchSize, ackIntervalMillis);
+                    ch.addRMQChannelListener(this);
+                    try {
+                        ch.open(connection);
+                        rmqChannels.add(ch);
+                    } catch (IOException e) {
+                        LOGGER.warn("Failed to open consume channel for {}.", queueName);
+                        LOGGER.warn("Exception: {}", e);
+                        ch.removeRMQChannelListener(this);
                     }
                 }
             }
@@ -343,17 +389,18 @@ public class RabbitConnection implements ShutdownListener, RMQChannelListener, R
     }
 
     /**
-     * Close unused channels.
+     * Close unused channels, including the consumers of a queue beyond its count.
      *
-     * @param usedQueueNames
-     *            the collection of used queue names.
+     * @param consumerCounts
+     *            the number of consumers of each used queue.
      */
-    private void closeUnusedConsumeChannels(Collection<String> usedQueueNames) {
+    private void closeUnusedConsumeChannels(Map<String, Integer> consumerCounts) {
         Collection<ConsumeRMQChannel> channels = getConsumeRMQChannels();
         Collection<ConsumeRMQChannel> unclosedChannels = new HashSet<ConsumeRMQChannel>();
         if (!channels.isEmpty()) {
             for (ConsumeRMQChannel ch : channels) {
-                if (!usedQueueNames.contains(ch.getQueueName())) {
+                Integer count = consumerCounts.get(ch.getQueueName());
+                if (count == null || ch.getConsumerIndex() >= count) {
                     try {
                         ch.close();
                     } catch (IOException ex) {
@@ -416,15 +463,43 @@ public class RabbitConnection implements ShutdownListener, RMQChannelListener, R
     }
 
     /**
-     * Update publish channel.
+     * Update publish channels.
+     * Opens a channel for every empty stripe of the pool, and closes the channels of stripes
+     * that are no longer configured. Rate limits are updated in place. Stale bindings of the topology cache are declared again
+     * on the first channel opened.
      */
     public void updatePublishChannel() {
-        if (getPublishRMQChannels().size() == 0) {
+        RabbitConfiguration conf = RabbitConfiguration.get();
+        int count = Math.max(1, conf.getPublishChannelCount());
+        rateLimiter.configure(conf.getPublishMessagesPerSecond(), conf.getPublishBytesPerSecond(),
+                conf.getExchangeRateLimits());
+
+        for (PublishRMQChannel ch : publishChannelPool.resize(count)) {
+            try {
+                ch.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close publish channel.", e);
+            }
+        }
+
+        boolean redeclared = false;
+        for (int i = 0; i < count; i++) {
+            if (publishChannelPool.getStripe(i) != null) {
+                continue;
+            }
             try {
-                PublishRMQChannel pubch = new PublishRMQChannel();
+                PublishRMQChannel pubch = new PublishRMQChannel(conf.isPublisherConfirms(),
+                        conf.getPublisherConfirmWindow(), conf.getBulkLaneMessagesPerSecond());
+                pubch.setTopologyCache(topologyCache);
+                pubch.setRateLimiter(rateLimiter);
                 pubch.addRMQChannelListener(this);
                 pubch.open(connection);
                 rmqChannels.add(pubch);
+                publishChannelPool.setStripe(i, pubch);
+                if (!redeclared) {
+                    pubch.redeclareTopology();
+                    redeclared = true;
+                }
             } catch (IOException e) {
                 LOGGER.warn("Failed to open publish channel.", e);
             }
@@ -460,6 +535,9 @@ public class RabbitConnection implements ShutdownListener, RMQChannelListener, R
         if (rmqChannels.contains(rmqChannel)) {
             rmqChannel.removeRMQChannelListener(this);
             rmqChannels.remove(rmqChannel);
+            if (rmqChannel instanceof PublishRMQChannel) {
+                publishChannelPool.remove((PublishRMQChannel) rmqChannel);
+            }
             try {
                 if (rmqChannel instanceof ConsumeRMQChannel) {
                     ConsumeRMQChannel consumeChannel = (ConsumeRMQChannel) rmqChannel;
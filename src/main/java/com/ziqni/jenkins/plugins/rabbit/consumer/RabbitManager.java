@@ -3,6 +3,8 @@ package com.ziqni.jenkins.plugins.rabbit.consumer;
 import com.ziqni.jenkins.plugins.rabbit.configuration.RabbitConfiguration;
 import com.ziqni.jenkins.plugins.rabbit.utils.MachineIdentifier;
 import hudson.util.Secret;
+import com.ziqni.jenkins.plugins.rabbit.consumer.channels.TopologyCache;
+import com.ziqni.jenkins.plugins.rabbit.consumer.channels.PublishChannelPool;
 import com.ziqni.jenkins.plugins.rabbit.consumer.channels.PublishRMQChannel;
 import com.ziqni.jenkins.plugins.rabbit.consumer.extensions.ServerOperator;
 import com.ziqni.jenkins.plugins.rabbit.consumer.listeners.RMQConnectionListener;
@@ -12,7 +14,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.ConnectException;
-import java.util.Collection;
 import java.util.Objects;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -38,6 +39,7 @@ public final class RabbitManager implements RMQConnectionListener {
     private static final Logger LOGGER = LoggerFactory.getLogger(RabbitManager.class);
 
     private RabbitConnection rabbitConnection;
+    private final TopologyCache topologyCache = new TopologyCache();
     private volatile boolean statusOpen = false;
     private CountDownLatch closeLatch = null;
 
@@ -75,6 +77,7 @@ public final class RabbitManager implements RMQConnectionListener {
                     shutdownWithWait();
                     rabbitConnection = null;
                 }
+                topologyCache.clear();
             }
             if (rabbitConnection != null &&
                     !uri.equals(rabbitConnection.getServiceUri()) &&
@@ -82,11 +85,13 @@ public final class RabbitManager implements RMQConnectionListener {
                     !pass.equals(rabbitConnection.getUserPassword())) {
                 shutdownWithWait();
                 rabbitConnection = null;
+                topologyCache.clear();
             }
 
             if (enableConsumer) {
                 if (rabbitConnection == null) {
                     rabbitConnection = new RabbitConnection(uri, user, pass, watchdog);
+                    rabbitConnection.setTopologyCache(topologyCache);
                     rabbitConnection.addRMQConnectionListener(this);
                     try {
                         rabbitConnection.open();
@@ -195,15 +200,41 @@ public final class RabbitManager implements RMQConnectionListener {
     /**
      * Gets instance of {@link PublishRMQChannel}.
      *
-     * @return instance.
+     * This is a single channel of the pool, publishes through it bypass the striping
+     * and are not ordered with publishes through the pool.
+     *
+     * @return instance, the first open channel of the pool if any.
+     * @deprecated use {@link #getPublishChannelPool()}.
      */
+    @Deprecated
     public PublishRMQChannel getPublishChannel() {
+        PublishChannelPool pool = getPublishChannelPool();
+        if (pool == null) {
+            return null;
+        }
+        PublishRMQChannel first = null;
+        for (int i = 0; i < pool.size(); i++) {
+            PublishRMQChannel ch = pool.getStripe(i);
+            if (ch != null && ch.isOpen()) {
+                return ch;
+            }
+            if (first == null) {
+                first = ch;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Gets the pool of publish channels.
+     *
+     * @return instance, or null if not connected.
+     */
+    public PublishChannelPool getPublishChannelPool() {
         if (statusOpen) {
-            if (rabbitConnection != null) {
-                Collection<PublishRMQChannel> channels = rabbitConnection.getPublishRMQChannels();
-                if (!channels.isEmpty()) {
-                    return (PublishRMQChannel)(channels.toArray()[0]);
-                }
+            RabbitConnection conn = rabbitConnection;
+            if (conn != null && conn.getPublishChannelPool().size() > 0) {
+                return conn.getPublishChannelPool();
             }
         }
         return null;
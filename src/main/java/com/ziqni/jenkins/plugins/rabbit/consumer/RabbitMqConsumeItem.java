@@ -11,6 +11,7 @@ import com.ziqni.jenkins.plugins.rabbit.consumer.extensions.MessageQueueListener
 import jenkins.model.Jenkins;
 import org.apache.commons.lang3.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import java.util.Collection;
@@ -29,8 +30,32 @@ public class RabbitMqConsumeItem implements Describable<RabbitMqConsumeItem> {
      */
     public static final String DEBUG_APPID = "*";
 
+    /**
+     * Default maximum number of unacked deliveries the broker pushes to the consumer.
+     */
+    public static final int DEFAULT_PREFETCH_COUNT = 100;
+
+    /**
+     * Default number of deliveries acked at once.
+     */
+    public static final int DEFAULT_ACK_BATCH_SIZE = 20;
+
+    /**
+     * Default maximum time in millis a handled delivery waits for its ack.
+     */
+    public static final long DEFAULT_ACK_INTERVAL_MILLIS = 500;
+
+    /**
+     * Default number of consumers of the queue.
+     */
+    public static final int DEFAULT_CONSUMER_COUNT = 1;
+
     private String appId = null;
     private String queueName = null;
+    private int prefetchCount;
+    private int ackBatchSize;
+    private long ackIntervalMillis;
+    private int consumerCount;
 
     /**
      * Creates instance with specific parameters.
@@ -88,6 +113,82 @@ public class RabbitMqConsumeItem implements Describable<RabbitMqConsumeItem> {
         this.queueName = queueName;
     }
 
+    /**
+     * Gets the maximum number of unacked deliveries the broker pushes to the consumer.
+     *
+     * @return the prefetch count.
+     */
+    public final int getPrefetchCount() {
+        return prefetchCount > 0 ? prefetchCount : DEFAULT_PREFETCH_COUNT;
+    }
+
+    /**
+     * Sets the maximum number of unacked deliveries the broker pushes to the consumer.
+     *
+     * @param prefetchCount the prefetch count, 0 for the default.
+     */
+    @DataBoundSetter
+    public final void setPrefetchCount(int prefetchCount) {
+        this.prefetchCount = Math.max(0, prefetchCount);
+    }
+
+    /**
+     * Gets the number of deliveries acked at once.
+     *
+     * @return the number of deliveries, 1 if every delivery is acked on its own.
+     */
+    public final int getAckBatchSize() {
+        return ackBatchSize > 0 ? ackBatchSize : DEFAULT_ACK_BATCH_SIZE;
+    }
+
+    /**
+     * Sets the number of deliveries acked at once.
+     *
+     * @param ackBatchSize the number of deliveries, 0 for the default.
+     */
+    @DataBoundSetter
+    public final void setAckBatchSize(int ackBatchSize) {
+        this.ackBatchSize = Math.max(0, ackBatchSize);
+    }
+
+    /**
+     * Gets the maximum time a handled delivery waits for its ack.
+     *
+     * @return the time in millis.
+     */
+    public final long getAckIntervalMillis() {
+        return ackIntervalMillis > 0 ? ackIntervalMillis : DEFAULT_ACK_INTERVAL_MILLIS;
+    }
+
+    /**
+     * Sets the maximum time a handled delivery waits for its ack.
+     *
+     * @param ackIntervalMillis the time in millis, 0 for the default.
+     */
+    @DataBoundSetter
+    public final void setAckIntervalMillis(long ackIntervalMillis) {
+        this.ackIntervalMillis = Math.max(0, ackIntervalMillis);
+    }
+
+    /**
+     * Gets the number of consumers of the queue, each on a channel of its own.
+     *
+     * @return the number of consumers.
+     */
+    public final int getConsumerCount() {
+        return consumerCount > 0 ? consumerCount : DEFAULT_CONSUMER_COUNT;
+    }
+
+    /**
+     * Sets the number of consumers of the queue, each on a channel of its own.
+     *
+     * @param consumerCount the number of consumers, 0 for the default.
+     */
+    @DataBoundSetter
+    public final void setConsumerCount(int consumerCount) {
+        this.consumerCount = Math.max(0, consumerCount);
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Descriptor<RabbitMqConsumeItem> getDescriptor() {
@@ -101,6 +202,10 @@ public class RabbitMqConsumeItem implements Describable<RabbitMqConsumeItem> {
         int result = 1;
         result = prime * result + ((appId == null) ? 0 : appId.hashCode());
         result = prime * result + ((queueName == null) ? 0 : queueName.hashCode());
+        result = prime * result + getPrefetchCount();
+        result = prime * result + getAckBatchSize();
+        result = prime * result + Long.hashCode(getAckIntervalMillis());
+        result = prime * result + getConsumerCount();
         return result;
     }
 
@@ -122,6 +227,11 @@ public class RabbitMqConsumeItem implements Describable<RabbitMqConsumeItem> {
                 return false;
         } else if (!queueName.equals(other.queueName))
             return false;
+        if (getPrefetchCount() != other.getPrefetchCount()
+                || getAckBatchSize() != other.getAckBatchSize()
+                || getAckIntervalMillis() != other.getAckIntervalMillis()
+                || getConsumerCount() != other.getConsumerCount())
+            return false;
         return true;
     }
 
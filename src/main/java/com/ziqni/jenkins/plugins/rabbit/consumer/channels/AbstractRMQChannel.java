@@ -25,7 +25,7 @@ public abstract class AbstractRMQChannel implements RMQChannelNotifier, Shutdown
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractRMQChannel.class);
 
-    protected Channel channel;
+    protected volatile Channel channel;
     protected RabbitState state = RabbitState.DISCONNECTED;
     protected final Collection<RMQChannelListener> rmqChannelListeners = new CopyOnWriteArraySet<RMQChannelListener>();
 
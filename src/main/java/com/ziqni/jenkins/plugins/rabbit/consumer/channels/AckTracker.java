@@ -0,0 +1,60 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.channels;
+
+import java.util.TreeSet;
+
+/**
+ * Tracks deliveries of a channel that are handled out of order.
+ *
+ * A multiple ack covers every delivery up to its tag, so it may only be sent for a tag
+ * below which every delivery is completed. The watermark is the highest such tag.
+ */
+final class AckTracker {
+
+    private final TreeSet<Long> pending = new TreeSet<>();
+    private long lastDelivered = 0;
+    private long watermark = 0;
+
+    /**
+     * Adds delivery. Tags of a channel are delivered in increasing order.
+     *
+     * @param deliveryTag the delivery tag.
+     */
+    synchronized void delivered(long deliveryTag) {
+        pending.add(deliveryTag);
+        lastDelivered = Math.max(lastDelivered, deliveryTag);
+    }
+
+    /**
+     * Completes delivery.
+     *
+     * @param deliveryTag the delivery tag.
+     * @return the new watermark, or 0 if it did not move.
+     */
+    synchronized long completed(long deliveryTag) {
+        pending.remove(deliveryTag);
+        long next = pending.isEmpty() ? lastDelivered : pending.first() - 1;
+        if (next > watermark) {
+            watermark = next;
+            return next;
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the highest tag below which every delivery is completed.
+     *
+     * @return the tag, 0 if none.
+     */
+    synchronized long getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * Gets the number of deliveries that are not completed.
+     *
+     * @return the number of deliveries.
+     */
+    synchronized int getPending() {
+        return pending.size();
+    }
+}
@@ -10,16 +10,29 @@ import com.ziqni.jenkins.plugins.rabbit.consumer.RabbitState;
 import com.ziqni.jenkins.plugins.rabbit.consumer.RabbitMqConsumeItem;
 import com.ziqni.jenkins.plugins.rabbit.consumer.extensions.MessageQueueListener;
 import com.ziqni.jenkins.plugins.rabbit.utils.RabbitMessageProperties;
+import jenkins.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Handle class for RabbitMQ consume channel.
  *
+ * The broker pushes at most a prefetch count of unacked deliveries to the consumer.
+ * Deliveries are handed over to the {@link DeliveryDispatcher}, which runs the listeners
+ * of a consumer in order off the consumer thread. A delivery is acked once its listeners
+ * return: handled deliveries are acked together with a single multiple ack, once a batch
+ * of them is reached or, for the remainder, after an interval.
+ *
+ * A queue may have several consumers, each on a channel of its own. Deliveries of a consumer
+ * are handled in order, consumers run in parallel. Bind events of the queue are fired by the
+ * first consumer only.
+ *
  * @author rinrinne a.k.a. rin_ne
  */
 public class ConsumeRMQChannel extends AbstractRMQChannel {
@@ -28,9 +41,20 @@ public class ConsumeRMQChannel extends AbstractRMQChannel {
 
     protected final Collection<String> appIds;
     private final String queueName;
+    private final int consumerIndex;
     private volatile boolean consumeStarted = false;
 
     private final boolean debug;
+    private final int prefetchCount;
+    private final int ackBatchSize;
+    private final long ackIntervalMillis;
+
+    private final AckTracker ackTracker = new AckTracker();
+    private final Object ackLock = new Object();
+    private long lastDeliveryTag;
+    private long ackedDeliveryTag;
+    private int unacked;
+    private volatile ScheduledFuture<?> ackFlusher;
 
     /**
      * Creates instance with specified parameters.
@@ -41,9 +65,55 @@ public class ConsumeRMQChannel extends AbstractRMQChannel {
      *            the hashset of application id.
      */
     public ConsumeRMQChannel(String queueName, Collection<String> appIds) {
+        this(queueName, appIds, RabbitMqConsumeItem.DEFAULT_PREFETCH_COUNT,
+                RabbitMqConsumeItem.DEFAULT_ACK_BATCH_SIZE, RabbitMqConsumeItem.DEFAULT_ACK_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param appIds
+     *            the hashset of application id.
+     * @param prefetchCount
+     *            the maximum number of unacked deliveries.
+     * @param ackBatchSize
+     *            the number of deliveries acked at once.
+     * @param ackIntervalMillis
+     *            the maximum time in millis a handled delivery waits for its ack.
+     */
+    public ConsumeRMQChannel(String queueName, Collection<String> appIds,
+                             int prefetchCount, int ackBatchSize, long ackIntervalMillis) {
+        this(queueName, 0, appIds, prefetchCount, ackBatchSize, ackIntervalMillis);
+    }
+
+    /**
+     * Creates instance with specified parameters.
+     *
+     * @param queueName
+     *            the queue name.
+     * @param consumerIndex
+     *            the index of the consumer among the consumers of the queue.
+     * @param appIds
+     *            the hashset of application id.
+     * @param prefetchCount
+     *            the maximum number of unacked deliveries.
+     * @param ackBatchSize
+     *            the number of deliveries acked at once.
+     * @param ackIntervalMillis
+     *            the maximum time in millis a handled delivery waits for its ack.
+     */
+    public ConsumeRMQChannel(String queueName, int consumerIndex, Collection<String> appIds,
+                             int prefetchCount, int ackBatchSize, long ackIntervalMillis) {
         this.appIds = appIds;
         this.queueName = queueName;
+        this.consumerIndex = consumerIndex;
         this.debug = isEnableDebug();
+        this.prefetchCount = Math.max(1, prefetchCount);
+        // The broker stops delivering once the prefetch count is unacked, ack well before.
+        this.ackBatchSize = Math.max(1, Math.min(ackBatchSize, this.prefetchCount / 2));
+        this.ackIntervalMillis = Math.max(1, ackIntervalMillis);
     }
 
     /**
@@ -64,15 +134,32 @@ public class ConsumeRMQChannel extends AbstractRMQChannel {
         return queueName;
     }
 
+    /**
+     * Gets the index of the consumer among the consumers of the queue.
+     *
+     * @return the index, 0 for the first consumer.
+     */
+    public int getConsumerIndex() {
+        return consumerIndex;
+    }
+
     /**
      * Starts consume.
      */
     public void consume() {
         if (state == RabbitState.CONNECTED && channel != null) {
             try {
+                channel.basicQos(prefetchCount);
                 channel.basicConsume(queueName, false, new MessageConsumer(channel));
                 consumeStarted = true;
-                MessageQueueListener.fireOnBind(appIds, queueName);
+                // Only once consuming, a failed start leaves no flusher behind.
+                if (ackBatchSize > 1) {
+                    ackFlusher = Timer.get().scheduleWithFixedDelay(this::flushAcks,
+                            ackIntervalMillis, ackIntervalMillis, TimeUnit.MILLISECONDS);
+                }
+                if (consumerIndex == 0) {
+                    MessageQueueListener.fireOnBind(appIds, queueName);
+                }
             } catch (IOException e) {
                 LOGGER.warn("Failed to start consumer: ", e);
             }
@@ -88,6 +175,86 @@ public class ConsumeRMQChannel extends AbstractRMQChannel {
         return consumeStarted;
     }
 
+    /**
+     * Gets the maximum number of unacked deliveries.
+     *
+     * @return the prefetch count.
+     */
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    /**
+     * Gets the number of deliveries acked at once.
+     *
+     * @return the number of deliveries.
+     */
+    public int getAckBatchSize() {
+        return ackBatchSize;
+    }
+
+    /**
+     * Acks delivery once its batch is full. Only deliveries below which every delivery
+     * is handled are acked.
+     *
+     * @param deliveryTag
+     *            the delivery tag of a handled delivery.
+     */
+    void ack(long deliveryTag) {
+        synchronized (ackLock) {
+            long watermark = ackTracker.completed(deliveryTag);
+            if (watermark > 0) {
+                lastDeliveryTag = watermark;
+            }
+            if (++unacked >= ackBatchSize) {
+                flushAcks();
+            }
+        }
+    }
+
+    /**
+     * Acks the deliveries handled so far with a single multiple ack.
+     */
+    void flushAcks() {
+        synchronized (ackLock) {
+            if (lastDeliveryTag <= ackedDeliveryTag) {
+                return;
+            }
+            unacked = 0;
+            ackedDeliveryTag = lastDeliveryTag;
+            Channel ch = channel;
+            if (ch == null || !ch.isOpen()) {
+                // Delivery tags die with the channel, the broker delivers the messages again.
+                return;
+            }
+            try {
+                ch.basicAck(lastDeliveryTag, true);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Failed to ack deliveries up to {}.", lastDeliveryTag, e);
+            }
+        }
+    }
+
+    private void stopAckFlusher() {
+        ScheduledFuture<?> flusher = ackFlusher;
+        if (flusher != null) {
+            flusher.cancel(false);
+            ackFlusher = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Handled deliveries are acked before.
+     */
+    @Override
+    public void close() throws IOException {
+        stopAckFlusher();
+        flushAcks();
+        super.close();
+    }
+
     /**
      * Gets whether debug mode is enabled or not.
      *
@@ -119,33 +286,42 @@ public class ConsumeRMQChannel extends AbstractRMQChannel {
         public void handleDelivery(String consumerTag, Envelope envelope, BasicProperties properties, byte[] body)
                 throws IOException {
 
-            try {
+            long deliveryTag = envelope.getDeliveryTag();
+            ackTracker.delivered(deliveryTag);
+            // Keyed by consumer, the broker spreads the deliveries of a queue over its consumers anyway.
+            DeliveryDispatcher.get().dispatch(ConsumeRMQChannel.this, () -> {
+                try {
+                    receive(envelope, properties, body);
+                } catch (RuntimeException e) {
+                    LOGGER.warn("caught exception in delivery handler", e);
+                }
+                // Acked even if it failed, a multiple ack of a later delivery would cover it anyway.
+                ack(deliveryTag);
+            });
+        }
 
-                long deliveryTag = envelope.getDeliveryTag();
+        /**
+         * Fires the listeners of delivery.
+         */
+        private void receive(Envelope envelope, BasicProperties properties, byte[] body) {
+            // One lazy view of the delivery, shared by every listener.
+            RabbitMessageProperties props = new RabbitMessageProperties(queueName, envelope, properties);
 
-                if (debug) {
-                    if (appIds.contains(RabbitMqConsumeItem.DEBUG_APPID)) {
-                        MessageQueueListener.fireOnReceive(new RabbitMessageProperties(queueName, envelope, properties), body);
-                    }
+            if (debug) {
+                if (appIds.contains(RabbitMqConsumeItem.DEBUG_APPID)) {
+                    MessageQueueListener.fireOnReceive(props, body);
                 }
+            }
 
-                if (properties.getAppId() != null && !properties.getAppId().equals(RabbitMqConsumeItem.DEBUG_APPID)) {
-                    if (appIds.contains(properties.getAppId())) {
-                        MessageQueueListener.fireOnReceive(new RabbitMessageProperties(queueName, envelope, properties), body);
-                    }
+            if (properties.getAppId() != null && !properties.getAppId().equals(RabbitMqConsumeItem.DEBUG_APPID)) {
+                if (appIds.contains(properties.getAppId())) {
+                    MessageQueueListener.fireOnReceive(props, body);
                 }
-                else if(!appIds.isEmpty()){
-                    appIds.forEach(appId ->
-                            MessageQueueListener.fireOnReceive(new RabbitMessageProperties(appId, queueName, envelope, properties), body)
-                    );
-                }
-
-                channel.basicAck(deliveryTag, false);
-
-            } catch (IOException e) {
-                throw e;
-            } catch (RuntimeException e) {
-                LOGGER.warn("caught exception in delivery handler", e);
+            }
+            else if(!appIds.isEmpty()){
+                appIds.forEach(appId ->
+                        MessageQueueListener.fireOnReceive(props.withAppId(appId), body)
+                );
             }
         }
     }
@@ -158,7 +334,10 @@ public class ConsumeRMQChannel extends AbstractRMQChannel {
      */
     public void shutdownCompleted(ShutdownSignalException shutdownSignalException) {
         consumeStarted = false;
-        MessageQueueListener.fireOnUnbind(appIds, queueName);
+        stopAckFlusher();
+        if (consumerIndex == 0) {
+            MessageQueueListener.fireOnUnbind(appIds, queueName);
+        }
         super.shutdownCompleted(shutdownSignalException);
     }
 }
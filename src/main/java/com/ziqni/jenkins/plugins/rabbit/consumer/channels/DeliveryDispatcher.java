@@ -0,0 +1,145 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.channels;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the handlers of deliveries on a pool of worker threads.
+ *
+ * The consumer threads of the connection only hand deliveries over, so a slow listener
+ * no longer holds up the other queues. Tasks of the same key, for example the same consumer,
+ * run one after another in order, tasks of different keys run in parallel. A worker runs one
+ * task of a key at a time, then the key goes to the back of the pool queue, so a busy key
+ * cannot starve the others.
+ *
+ * Dispatching never waits. The tasks of a consumer are already bounded by its prefetch count,
+ * since a delivery is only acked once its task ran, so no bound is shared between consumers.
+ */
+public final class DeliveryDispatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeliveryDispatcher.class);
+
+    /**
+     * Time in seconds an idle worker thread is kept.
+     */
+    static final long WORKER_KEEP_ALIVE_SECONDS = 60;
+
+    private static final DeliveryDispatcher INSTANCE = new DeliveryDispatcher(createWorkers());
+
+    private final Executor workers;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<Object, KeyQueue> queues = new HashMap<>();
+
+    /**
+     * Creates instance.
+     *
+     * @param workers the executor that runs tasks.
+     */
+    DeliveryDispatcher(Executor workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * Gets the dispatcher shared by every consume channel.
+     *
+     * @return the dispatcher.
+     */
+    public static DeliveryDispatcher get() {
+        return INSTANCE;
+    }
+
+    private static Executor createWorkers() {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "RabbitDeliveryDispatcher"));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Schedules task after the tasks of the same key.
+     *
+     * @param key the key, tasks of equal keys run in order.
+     * @param task the task.
+     */
+    public void dispatch(Object key, Runnable task) {
+        inFlight.incrementAndGet();
+        KeyQueue queue;
+        boolean idle;
+        synchronized (this) {
+            queue = queues.get(key);
+            idle = queue == null;
+            if (idle) {
+                queue = new KeyQueue(key);
+                queues.put(key, queue);
+            }
+            queue.tasks.addLast(task);
+        }
+        if (idle) {
+            schedule(queue);
+        }
+    }
+
+    /**
+     * Gets the number of tasks waiting or running.
+     *
+     * @return the number of tasks.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private void schedule(KeyQueue queue) {
+        workers.execute(() -> runNext(queue));
+    }
+
+    private void runNext(KeyQueue queue) {
+        Runnable task;
+        synchronized (this) {
+            task = queue.tasks.pollFirst();
+        }
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Caught exception in delivery task of {}.", queue.key, e);
+        } finally {
+            inFlight.decrementAndGet();
+            boolean more;
+            synchronized (this) {
+                more = !queue.tasks.isEmpty();
+                if (!more) {
+                    queues.remove(queue.key);
+                }
+            }
+            if (more) {
+                schedule(queue);
+            }
+        }
+    }
+
+    /**
+     * Tasks of a key, in order.
+     */
+    private static final class KeyQueue {
+
+        private final Object key;
+        private final Deque<Runnable> tasks = new ArrayDeque<>();
+
+        KeyQueue(Object key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.channels;
+
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishLane;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Schedules the tasks of a publish channel in two lanes on a single worker thread.
+ *
+ * The control lane is always drained first, a bulk task only runs when no control task
+ * is waiting. Bulk tasks are weighted by their number of messages and bounded to a rate
+ * per second. A task may also come with a pacing that takes from the publish rate limits
+ * and tells how long to wait: a bulk task waits for it, a control task is counted but never
+ * waits. While a bulk task waits the worker wakes up at once for a control task. Tasks of
+ * the same lane run in order. A task that throws is logged and does not stop the worker.
+ *
+ * A task only runs once the {@link Room} has room for its messages, e.g. in the confirm
+ * window. Until then it stays queued and the worker waits for {@link #wakeUp()}.
+ */
+final class LaneScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LaneScheduler.class);
+
+    /**
+     * Decides whether the messages of a task may be published now.
+     */
+    interface Room {
+
+        /**
+         * Gets whether there is room for messages.
+         *
+         * @param lane the lane of the task.
+         * @param messages the number of messages of the task.
+         * @return true if the task may run.
+         */
+        boolean hasRoom(PublishLane lane, int messages);
+    }
+
+    private final Executor worker;
+    private final int bulkMessagesPerSecond;
+    private final Room room;
+    private final Deque<LaneTask> control = new ArrayDeque<>();
+    private final Deque<LaneTask> bulk = new ArrayDeque<>();
+
+    private boolean draining = false;
+    private long windowStart = 0;
+    private int windowMessages = 0;
+
+    /**
+     * Creates instance.
+     *
+     * @param worker the executor with a single thread that runs tasks.
+     * @param bulkMessagesPerSecond the maximum number of bulk messages per second, 0 if unbounded.
+     */
+    LaneScheduler(Executor worker, int bulkMessagesPerSecond) {
+        this(worker, bulkMessagesPerSecond, null);
+    }
+
+    /**
+     * Creates instance.
+     *
+     * @param worker the executor with a single thread that runs tasks.
+     * @param bulkMessagesPerSecond the maximum number of bulk messages per second, 0 if unbounded.
+     * @param room the room for messages, null if unbounded.
+     */
+    LaneScheduler(Executor worker, int bulkMessagesPerSecond, Room room) {
+        this.worker = worker;
+        this.bulkMessagesPerSecond = bulkMessagesPerSecond;
+        this.room = room;
+    }
+
+    /**
+     * Schedules task.
+     *
+     * @param lane the lane.
+     * @param messages the number of messages published by task.
+     * @param task the task.
+     * @throws RejectedExecutionException if the worker is shut down.
+     */
+    void execute(PublishLane lane, int messages, Runnable task) {
+        execute(lane, messages, task, null);
+    }
+
+    /**
+     * Schedules task with pacing.
+     *
+     * @param lane the lane.
+     * @param messages the number of messages published by task.
+     * @param task the task.
+     * @param pacing takes from the rate limits and returns the time in nanos to wait before the task runs, may be null.
+     * @throws RejectedExecutionException if the worker is shut down.
+     */
+    void execute(PublishLane lane, int messages, Runnable task, LongSupplier pacing) {
+        LaneTask laneTask = new LaneTask(messages, task, pacing);
+        Deque<LaneTask> queue = lane == PublishLane.BULK ? bulk : control;
+        synchronized (this) {
+            queue.addLast(laneTask);
+            if (draining) {
+                // The worker may wait for the bulk rate or for room, wake it up.
+                notifyAll();
+                return;
+            }
+            draining = true;
+        }
+        try {
+            worker.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                queue.remove(laneTask);
+                draining = false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Wakes up the worker if it waits for room.
+     */
+    synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * Gets the number of waiting tasks.
+     *
+     * @param lane the lane.
+     * @return the number of tasks.
+     */
+    synchronized int size(PublishLane lane) {
+        return lane == PublishLane.BULK ? bulk.size() : control.size();
+    }
+
+    private void drain() {
+        boolean idle = false;
+        try {
+            while (true) {
+                Runnable task;
+                synchronized (this) {
+                    task = next();
+                    if (task == null) {
+                        draining = false;
+                        idle = true;
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.warn("Publish task failed.", e);
+                }
+            }
+        } finally {
+            if (!idle) {
+                // An error ended the worker, the remaining tasks need a new one.
+                synchronized (this) {
+                    draining = false;
+                }
+                resume();
+            }
+        }
+    }
+
+    /**
+     * Takes the next task that may run, waiting as long as the head tasks may not.
+     * Must be called with the monitor held.
+     *
+     * @return the task, or null if both lanes are empty.
+     */
+    private Runnable next() {
+        while (true) {
+            long wait;
+            LaneTask head = control.peekFirst();
+            if (head != null) {
+                if (hasRoom(PublishLane.CONTROL, head)) {
+                    control.pollFirst();
+                    if (head.pacing != null) {
+                        head.pacing.getAsLong();
+                    }
+                    return head.task;
+                }
+                wait = Long.MAX_VALUE;
+            } else {
+                head = bulk.peekFirst();
+                if (head == null) {
+                    return null;
+                }
+                wait = admit(head);
+                if (wait <= 0) {
+                    bulk.pollFirst();
+                    return head.task;
+                }
+            }
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, wait);
+            } catch (InterruptedException e) {
+                // Shutting down, run the remaining tasks without waiting.
+                Thread.currentThread().interrupt();
+                head = control.isEmpty() ? bulk.pollFirst() : control.pollFirst();
+                return head.task;
+            }
+        }
+    }
+
+    /**
+     * Starts the worker again if tasks are waiting and no worker runs.
+     */
+    private void resume() {
+        synchronized (this) {
+            if (draining || (control.isEmpty() && bulk.isEmpty())) {
+                return;
+            }
+            draining = true;
+        }
+        try {
+            worker.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            synchronized (this) {
+                draining = false;
+            }
+        }
+    }
+
+    private boolean hasRoom(PublishLane lane, LaneTask task) {
+        return room == null || task.messages == 0 || room.hasRoom(lane, task.messages);
+    }
+
+    /**
+     * Decides whether the bulk task at the head of the lane may run.
+     * The bulk rate and the pacing are taken only once per task.
+     *
+     * @return 0 or less if the task may run, otherwise the time in nanos to wait,
+     *         {@link Long#MAX_VALUE} until woken up.
+     */
+    private long admit(LaneTask head) {
+        if (!head.counted) {
+            long wait = acquireBulk(head.messages);
+            if (wait > 0) {
+                return TimeUnit.MILLISECONDS.toNanos(wait);
+            }
+            head.counted = true;
+        }
+        if (!head.paced) {
+            head.paced = true;
+            head.readyAt = System.nanoTime() + (head.pacing != null ? Math.max(0, head.pacing.getAsLong()) : 0);
+        }
+        long wait = head.readyAt - System.nanoTime();
+        if (wait > 0) {
+            return wait;
+        }
+        return hasRoom(PublishLane.BULK, head) ? 0 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Takes messages from the bulk rate of the current second.
+     * A task is always allowed at the start of a second, even if it exceeds the rate.
+     *
+     * @return 0 if taken, otherwise the time in millis until the next second.
+     */
+    private long acquireBulk(int messages) {
+        if (bulkMessagesPerSecond <= 0) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        if (now - windowStart >= 1000) {
+            windowStart = now;
+            windowMessages = 0;
+        }
+        if (windowMessages > 0 && windowMessages + messages > bulkMessagesPerSecond) {
+            return windowStart + 1000 - now;
+        }
+        windowMessages += messages;
+        return 0;
+    }
+
+    /**
+     * A task of either lane.
+     */
+    private static final class LaneTask {
+
+        private final int messages;
+        private final Runnable task;
+        private final LongSupplier pacing;
+        private boolean counted;
+        private boolean paced;
+        private long readyAt;
+
+        LaneTask(int messages, Runnable task, LongSupplier pacing) {
+            this.messages = messages;
+            this.task = task;
+            this.pacing = pacing;
+        }
+    }
+}
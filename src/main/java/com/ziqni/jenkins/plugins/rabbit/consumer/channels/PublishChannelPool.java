@@ -0,0 +1,297 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.channels;
+
+import com.rabbitmq.client.AMQP;
+import com.ziqni.jenkins.plugins.rabbit.consumer.listeners.RMQChannelListener;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.ExchangeType;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.OutboundMessage;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishChannel;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishLane;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Pool of publish channels that is used as a single {@link PublishChannel}.
+ *
+ * Each message goes to the stripe chosen by hashing its exchange and routing key,
+ * so messages with the same key keep their order while different keys, for example
+ * the consoles of different builds, are published in parallel on their own channels.
+ * If the stripe of a key is not open, its messages fail instead of moving to another
+ * stripe, where they could be overtaken once the stripe is open again. Callers retry or
+ * spill them like for a closed channel. Exchange setup is not ordered and uses the next
+ * open stripe.
+ */
+public class PublishChannelPool implements PublishChannel {
+
+    /**
+     * Default number of publish channels.
+     */
+    public static final int DEFAULT_CHANNEL_COUNT = 4;
+
+    private volatile PublishRMQChannel[] stripes = new PublishRMQChannel[0];
+    private final Collection<RMQChannelListener> listeners = new CopyOnWriteArraySet<RMQChannelListener>();
+
+    /**
+     * Creates instance.
+     */
+    public PublishChannelPool() {
+    }
+
+    /**
+     * Gets the number of stripes.
+     *
+     * @return the number of stripes.
+     */
+    public int size() {
+        return stripes.length;
+    }
+
+    /**
+     * Gets channel of stripe.
+     *
+     * @param index the stripe.
+     * @return the channel, or null if none is set.
+     */
+    public PublishRMQChannel getStripe(int index) {
+        PublishRMQChannel[] current = stripes;
+        return index < current.length ? current[index] : null;
+    }
+
+    /**
+     * Sets channel of stripe.
+     *
+     * @param index the stripe.
+     * @param channel the channel.
+     */
+    public synchronized void setStripe(int index, PublishRMQChannel channel) {
+        PublishRMQChannel[] next = Arrays.copyOf(stripes, stripes.length);
+        next[index] = channel;
+        for (RMQChannelListener l : listeners) {
+            channel.addRMQChannelListener(l);
+        }
+        stripes = next;
+    }
+
+    /**
+     * Removes channel from its stripe.
+     *
+     * @param channel the channel.
+     */
+    public synchronized void remove(PublishRMQChannel channel) {
+        PublishRMQChannel[] next = Arrays.copyOf(stripes, stripes.length);
+        for (int i = 0; i < next.length; i++) {
+            if (next[i] == channel) {
+                next[i] = null;
+            }
+        }
+        stripes = next;
+    }
+
+    /**
+     * Changes the number of stripes.
+     *
+     * @param count the number of stripes.
+     * @return the channels of removed stripes, to be closed by the caller.
+     */
+    public synchronized List<PublishRMQChannel> resize(int count) {
+        List<PublishRMQChannel> removed = new ArrayList<>();
+        for (int i = count; i < stripes.length; i++) {
+            if (stripes[i] != null) {
+                removed.add(stripes[i]);
+            }
+        }
+        stripes = Arrays.copyOf(stripes, count);
+        return removed;
+    }
+
+    /**
+     * Gets the stripe of key.
+     *
+     * @param exchangeName the exchange name.
+     * @param routingKey the routing key.
+     * @param count the number of stripes.
+     * @return the stripe.
+     */
+    static int stripeOf(String exchangeName, String routingKey, int count) {
+        int h = Objects.hash(exchangeName, routingKey);
+        return Math.floorMod(h ^ (h >>> 16), count);
+    }
+
+    /**
+     * Gets the channel of the stripe of key.
+     *
+     * @return the channel, or null if it is not open.
+     */
+    private PublishRMQChannel select(String exchangeName, String routingKey) {
+        PublishRMQChannel[] current = stripes;
+        if (current.length == 0) {
+            return null;
+        }
+        PublishRMQChannel ch = current[stripeOf(exchangeName, routingKey, current.length)];
+        return ch != null && ch.isOpen() ? ch : null;
+    }
+
+    /**
+     * Gets the channel of the stripe of key, or the next open one.
+     *
+     * @return the channel, or null if no channel is open.
+     */
+    private PublishRMQChannel selectAny(String exchangeName, String routingKey) {
+        PublishRMQChannel[] current = stripes;
+        if (current.length == 0) {
+            return null;
+        }
+        int first = stripeOf(exchangeName, routingKey, current.length);
+        for (int i = 0; i < current.length; i++) {
+            PublishRMQChannel ch = current[(first + i) % current.length];
+            if (ch != null && ch.isOpen()) {
+                return ch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public CompletableFuture<PublishResult> publish(String exchangeName, String routingKey,
+                                                    AMQP.BasicProperties props, byte[] body) {
+        PublishRMQChannel ch = select(exchangeName, routingKey);
+        if (ch == null) {
+            return CompletableFuture.completedFuture(new PublishResult(false, "Channel is not opened.", exchangeName));
+        }
+        return ch.publish(exchangeName, routingKey, props, body);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<PublishResult> publishOwned(String exchangeName, String routingKey,
+                                                         AMQP.BasicProperties props, byte[] body) {
+        PublishRMQChannel ch = select(exchangeName, routingKey);
+        if (ch == null) {
+            return CompletableFuture.completedFuture(new PublishResult(false, "Channel is not opened.", exchangeName));
+        }
+        return ch.publishOwned(exchangeName, routingKey, props, body);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The batch is published in the control lane.
+     */
+    @Override
+    public Future<List<PublishResult>> publishAll(List<OutboundMessage> messages) {
+        return publishAll(messages, PublishLane.CONTROL);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The batch is split by stripe, each part is published in one go on its channel.
+     */
+    @Override
+    public Future<List<PublishResult>> publishAll(List<OutboundMessage> messages, PublishLane lane) {
+        Map<PublishRMQChannel, List<Integer>> parts = new IdentityHashMap<>();
+        PublishResult[] results = new PublishResult[messages.size()];
+        for (int i = 0; i < messages.size(); i++) {
+            OutboundMessage m = messages.get(i);
+            PublishRMQChannel ch = select(m.getExchangeName(), m.getRoutingKey());
+            if (ch == null) {
+                results[i] = new PublishResult(false, "Channel is not opened.", m.getExchangeName());
+            } else {
+                parts.computeIfAbsent(ch, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        List<CompletableFuture<Void>> done = new ArrayList<>(parts.size());
+        for (Map.Entry<PublishRMQChannel, List<Integer>> part : parts.entrySet()) {
+            List<Integer> indexes = part.getValue();
+            List<OutboundMessage> batch = new ArrayList<>(indexes.size());
+            for (int i : indexes) {
+                batch.add(messages.get(i));
+            }
+            done.add(part.getKey().publishAll(batch, lane).thenAccept(list -> {
+                for (int j = 0; j < indexes.size(); j++) {
+                    results[indexes.get(j)] = list.get(j);
+                }
+            }));
+        }
+        return CompletableFuture.allOf(done.toArray(new CompletableFuture[0])).thenApply(v -> Arrays.asList(results));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public PublishResult setupExchange(String exchangeName, String queueName)
+            throws ExecutionException, InterruptedException {
+        PublishRMQChannel ch = selectAny(exchangeName, queueName);
+        if (ch == null) {
+            return new PublishResult(false, "Channel is not opened.", exchangeName);
+        }
+        return ch.setupExchange(exchangeName, queueName);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public PublishResult setupExchange(String exchangeName, String queueName, ExchangeType type, String routingKey)
+            throws ExecutionException, InterruptedException {
+        PublishRMQChannel ch = selectAny(exchangeName, queueName);
+        if (ch == null) {
+            return new PublishResult(false, "Channel is not opened.", exchangeName);
+        }
+        return ch.setupExchange(exchangeName, queueName, type, routingKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return true if any channel is open.
+     */
+    public boolean isOpen() {
+        for (PublishRMQChannel ch : stripes) {
+            if (ch != null && ch.isOpen()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The listener is added to every channel of the pool, including channels opened later.
+     */
+    public synchronized void addListener(RMQChannelListener listener) {
+        listeners.add(listener);
+        for (PublishRMQChannel ch : stripes) {
+            if (ch != null) {
+                ch.addRMQChannelListener(listener);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void removeListener(RMQChannelListener listener) {
+        listeners.remove(listener);
+        for (PublishRMQChannel ch : stripes) {
+            if (ch != null) {
+                ch.removeRMQChannelListener(listener);
+            }
+        }
+    }
+}
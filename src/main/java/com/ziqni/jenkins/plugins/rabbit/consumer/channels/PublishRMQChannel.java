@@ -1,69 +1,549 @@
 package com.ziqni.jenkins.plugins.rabbit.consumer.channels;
 
 import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.ziqni.jenkins.plugins.rabbit.consumer.RabbitState;
 import com.ziqni.jenkins.plugins.rabbit.consumer.listeners.RMQChannelListener;
 import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.ExchangeType;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.OutboundMessage;
 import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishChannel;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishLane;
 import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishResult;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
 
 /**
  * Handle class for RabbitMQ publish channel.
  *
+ * In confirm mode the result of a publish is only known once the broker acks or nacks it.
+ * Publishes are pipelined: up to a window of messages may be waiting for their confirm,
+ * each is kept by its sequence number and its future is completed by the confirm listener.
+ * A task that does not fit into the window stays queued until confirms make room, the publish
+ * thread is never parked for it. Bulk tasks may not use the last part of the window, which is
+ * kept for control tasks.
+ *
+ * Every channel publishes from its own thread, which is released when the channel is idle
+ * and shut down with the channel. Tasks are scheduled in two lanes: control tasks, including
+ * single publishes and exchange setup, always run before bulk tasks such as console batches.
+ *
+ * Bindings set up through this channel are kept in a {@link TopologyCache} shared by the
+ * channels of a connection, so repeat calls return without a round trip to the broker.
+ * Publishes take from the {@link PublishRateLimiter} of the connection, if any. Bulk tasks
+ * wait for the limits in the scheduler, which still runs control tasks meanwhile; control
+ * tasks are counted but never wait, so build status is not held up by console traffic.
+ *
+ * If the broker closes the channel while the connection stays up, for example after a publish
+ * to a missing exchange, a new channel is opened on the same connection by the publish thread
+ * before it runs the next task. Queued tasks are then published on the new channel, and in
+ * confirm mode publishes that were still waiting for a confirm are sent again, up to
+ * {@link #MAX_PUBLISH_ATTEMPTS} times each.
+ *
  * @author rinrinne a.k.a. rin_ne
  */
 public class PublishRMQChannel extends AbstractRMQChannel implements PublishChannel {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PublishRMQChannel.class);
-    private final ExecutorService publishExecutor = Executors.newSingleThreadExecutor();
+    /**
+     * Default maximum number of publishes waiting for a confirm.
+     */
+    public static final int DEFAULT_CONFIRM_WINDOW = 256;
+
+    /**
+     * Part of the confirm window that bulk tasks may not use, 1 in N.
+     */
+    static final int CONTROL_RESERVE_RATIO = 8;
+
+    /**
+     * Default maximum number of messages per second published in the bulk lane.
+     */
+    public static final int DEFAULT_BULK_MESSAGES_PER_SECOND = 1000;
+
+    /**
+     * Time in seconds an idle publish thread is kept.
+     */
+    static final long PUBLISH_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Maximum number of times a message is sent when the channel is closed under it.
+     */
+    static final int MAX_PUBLISH_ATTEMPTS = 3;
+
+    private final ThreadPoolExecutor publishExecutor;
+    private final LaneScheduler scheduler;
+    private final boolean confirms;
+    private final int confirmWindow;
+    private final ConcurrentNavigableMap<Long, PendingConfirm> outstanding = new ConcurrentSkipListMap<>();
+    private volatile TopologyCache topologyCache = new TopologyCache();
+    private volatile PublishRateLimiter rateLimiter;
+    private volatile Connection connection;
+    private final AtomicBoolean terminated = new AtomicBoolean();
 
     /**
      * Creates instance.
      */
     public PublishRMQChannel() {
+        this(false, DEFAULT_CONFIRM_WINDOW);
+    }
+
+    /**
+     * Creates instance with specified confirm mode.
+     *
+     * @param confirms true if publishes are confirmed by the broker.
+     * @param confirmWindow the maximum number of publishes waiting for a confirm.
+     */
+    public PublishRMQChannel(boolean confirms, int confirmWindow) {
+        this(confirms, confirmWindow, DEFAULT_BULK_MESSAGES_PER_SECOND);
+    }
+
+    /**
+     * Creates instance with specified confirm mode and bulk rate.
+     *
+     * @param confirms true if publishes are confirmed by the broker.
+     * @param confirmWindow the maximum number of publishes waiting for a confirm.
+     * @param bulkMessagesPerSecond the maximum number of messages per second in the bulk lane, 0 if unbounded.
+     */
+    public PublishRMQChannel(boolean confirms, int confirmWindow, int bulkMessagesPerSecond) {
+        this.publishExecutor = new ThreadPoolExecutor(1, 1, PUBLISH_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new NamingThreadFactory(new DaemonThreadFactory(), "RabbitPublisher"));
+        this.publishExecutor.allowCoreThreadTimeOut(true);
+        this.confirms = confirms;
+        this.confirmWindow = confirmWindow > 0 ? confirmWindow : DEFAULT_CONFIRM_WINDOW;
+        this.scheduler = new LaneScheduler(publishExecutor, Math.max(0, bulkMessagesPerSecond),
+                confirms ? this::hasConfirmRoom : null);
     }
 
     /**
      * {@inheritDoc}
      */
-    public Future<PublishResult> publish(String exchangeName, String routingKey,
-                                         AMQP.BasicProperties props, byte[] body) {
-        return publishExecutor.submit(new PublishTask(exchangeName, routingKey, props, body));
+    @Override
+    public void open(final Connection connection) throws IOException {
+        super.open(connection);
+        this.connection = connection;
+        if (confirms && channel != null) {
+            channel.addConfirmListener(new OutstandingConfirmListener());
+            channel.confirmSelect();
+        }
+    }
+
+    /**
+     * Gets whether a closed channel can be replaced on the same connection.
+     *
+     * @param reason the reason of the close.
+     * @return true if the broker closed the channel and the connection is still open.
+     */
+    private boolean canReopen(ShutdownSignalException reason) {
+        Connection conn = connection;
+        return reason != null && !reason.isInitiatedByApplication() && !reason.isHardError()
+                && state == RabbitState.CONNECTED && conn != null && conn.isOpen()
+                && !publishExecutor.isShutdown();
+    }
+
+    /**
+     * Gets the open channel, opening a new one on the same connection if the broker closed it.
+     * Must be called from the publish thread.
+     *
+     * @return the channel, or null if it is closed for good.
+     */
+    private Channel openChannel() {
+        Channel ch = channel;
+        if (ch == null || ch.isOpen()) {
+            return ch;
+        }
+        ShutdownSignalException reason = ch.getCloseReason();
+        if (!canReopen(reason)) {
+            closed(reason);
+            return null;
+        }
+        Channel next;
+        try {
+            next = connection.createChannel();
+            if (next == null) {
+                throw new IOException("No channel number is available.");
+            }
+            if (confirms) {
+                next.addConfirmListener(new OutstandingConfirmListener());
+                next.confirmSelect();
+            }
+            next.addShutdownListener(this);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Failed to reopen publish channel.", e);
+            closed(reason);
+            return null;
+        }
+        channel = next;
+        LOGGER.info("Reopened RabbitMQ channel #{} for publish, channel #{} was closed: {}",
+                next.getChannelNumber(), ch.getChannelNumber(), reason.getMessage());
+
+        // Confirms of the old channel will never come, send its publishes again.
+        List<PendingConfirm> retries = new ArrayList<>();
+        for (Map.Entry<Long, PendingConfirm> entry = outstanding.pollFirstEntry(); entry != null; entry = outstanding.pollFirstEntry()) {
+            PendingConfirm pending = entry.getValue();
+            if (pending.attempts < MAX_PUBLISH_ATTEMPTS) {
+                retries.add(pending);
+            } else {
+                resolve(pending, false, "Channel closed before publish was confirmed.");
+            }
+        }
+        for (PendingConfirm pending : retries) {
+            send(next, pending);
+        }
+        return next;
+    }
+
+    /**
+     * Sets the cache of declared topology.
+     *
+     * @param topologyCache the cache, shared by the publish channels of a connection.
+     */
+    public void setTopologyCache(TopologyCache topologyCache) {
+        this.topologyCache = topologyCache;
+    }
+
+    /**
+     * Sets the rate limits of publishes.
+     *
+     * @param rateLimiter the limits, shared by the publish channels of a connection, or null if none.
+     */
+    public void setRateLimiter(PublishRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Declares the stale bindings of the topology cache again, after a reconnect.
+     * This is non-blocking method, bindings that cannot be declared are forgotten.
+     */
+    public void redeclareTopology() {
+        try {
+            scheduler.execute(PublishLane.CONTROL, 0, this::redeclareStale);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Channel is closed, topology is declared by the next channel.");
+        }
+    }
+
+    private void redeclareStale() {
+        TopologyCache cache = topologyCache;
+        long generation = cache.getGeneration();
+        int count = 0;
+        for (TopologyCache.Binding b : cache.getStale()) {
+            Channel ch = openChannel();
+            if (ch == null || !ch.isOpen()) {
+                return;
+            }
+            try {
+                if (b.isDeclareExchange()) {
+                    ch.exchangeDeclare(b.getExchangeName(), b.getExchangeType().name().toLowerCase());
+                }
+                ch.queueBind(b.getQueueName(), b.getExchangeName(), b.getRoutingKey());
+                cache.declared(b, generation);
+                count++;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Failed to declare binding of {} to {} again.", b.getQueueName(), b.getExchangeName());
+                cache.forget(b);
+            }
+        }
+        LOGGER.info("Declared {} bindings again.", count);
+    }
+
+    /**
+     * Gets whether publishes are confirmed by the broker.
+     *
+     * @return true if so.
+     */
+    public boolean isConfirms() {
+        return confirms;
+    }
+
+    /**
+     * Gets whether messages fit into the confirm window. A task larger than the window
+     * still runs once nothing is outstanding.
+     * Only called from the publish thread, which is the only one adding publishes.
+     *
+     * @param lane the lane of the task.
+     * @param messages the number of messages.
+     * @return true if so.
+     */
+    private boolean hasConfirmRoom(PublishLane lane, int messages) {
+        int count = outstanding.size();
+        if (count == 0) {
+            return true;
+        }
+        int limit = lane == PublishLane.BULK ? confirmWindow - Math.max(1, confirmWindow / CONTROL_RESERVE_RATIO) : confirmWindow;
+        return count + messages <= limit;
+    }
+
+    /**
+     * Gets the number of publishes waiting for a confirm.
+     *
+     * @return the number of publishes.
+     */
+    public int getOutstandingConfirms() {
+        return outstanding.size();
     }
 
     /**
      * {@inheritDoc}
+     *
+     * @return the result, completed on the publish thread or, in confirm mode, when the broker confirms.
      */
-    public PublishResult setupExchange(String exchangeName, String queueName) {
-        Future<PublishResult> future = publishExecutor.submit(
-                new PrepareTask(exchangeName, queueName, ExchangeType.FANOUT, ""));
-        PublishResult result = null;
+    public CompletableFuture<PublishResult> publish(String exchangeName, String routingKey,
+                                                    AMQP.BasicProperties props, byte[] body) {
+        return submit(new PublishTask(exchangeName, routingKey, props, body));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the result, completed on the publish thread or, in confirm mode, when the broker confirms.
+     */
+    @Override
+    public CompletableFuture<PublishResult> publishOwned(String exchangeName, String routingKey,
+                                                         AMQP.BasicProperties props, byte[] body) {
+        return submit(new PublishTask(exchangeName, routingKey, props, body, true));
+    }
+
+    private CompletableFuture<PublishResult> submit(PublishTask task) {
+        String exchangeName = task.exchangeName;
+        CompletableFuture<PublishResult> result = new CompletableFuture<>();
         try {
-            result = future.get();
-        } catch (Exception e) {
-            LOGGER.warn(e.getMessage());
+            scheduler.execute(PublishLane.CONTROL, 1, () -> task.publishTo(result), pacing(Collections.singletonList(task)));
+            return result;
+        } catch (RejectedExecutionException e) {
+            // The channel was closed and its thread shut down.
+            return CompletableFuture.completedFuture(new PublishResult(false, "Channel is not opened.", exchangeName));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The batch is published in the control lane.
+     */
+    @Override
+    public CompletableFuture<List<PublishResult>> publishAll(List<OutboundMessage> messages) {
+        return publishAll(messages, PublishLane.CONTROL);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The batch is published by a single task. In confirm mode the result is completed
+     * once the broker has confirmed every message of the batch.
+     */
+    @Override
+    public CompletableFuture<List<PublishResult>> publishAll(List<OutboundMessage> messages, PublishLane lane) {
+        List<PublishTask> tasks = new ArrayList<>(messages.size());
+        for (OutboundMessage m : messages) {
+            tasks.add(new PublishTask(m.getExchangeName(), m.getRoutingKey(), m.getProps(), m.getBody(), true));
+        }
+        CompletableFuture<List<PublishResult>> result = new CompletableFuture<>();
+        try {
+            scheduler.execute(lane, tasks.size(), () -> publishBatch(tasks, result), pacing(tasks));
+        } catch (RejectedExecutionException e) {
+            List<PublishResult> failed = new ArrayList<>(tasks.size());
+            for (PublishTask task : tasks) {
+                failed.add(new PublishResult(false, "Channel is not opened.", task.exchangeName));
+            }
+            result.complete(failed);
         }
         return result;
     }
 
+    /**
+     * Gets the pacing of publishes by the rate limits.
+     *
+     * @param tasks the publishes.
+     * @return the pacing, null if there are no limits.
+     */
+    private LongSupplier pacing(List<PublishTask> tasks) {
+        PublishRateLimiter limiter = rateLimiter;
+        if (limiter == null || !limiter.isLimited()) {
+            return null;
+        }
+        return () -> {
+            long wait = 0;
+            for (PublishTask task : tasks) {
+                wait = Math.max(wait, limiter.reserve(task.exchangeName, task.body != null ? task.body.length : 0));
+            }
+            return wait;
+        };
+    }
+
+    private void publishBatch(List<PublishTask> tasks, CompletableFuture<List<PublishResult>> result) {
+        List<CompletableFuture<PublishResult>> pending = new ArrayList<>(tasks.size());
+        for (PublishTask task : tasks) {
+            CompletableFuture<PublishResult> f = new CompletableFuture<>();
+            task.publishTo(f);
+            pending.add(f);
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).thenRun(() -> {
+            List<PublishResult> results = new ArrayList<>(pending.size());
+            for (CompletableFuture<PublishResult> f : pending) {
+                results.add(f.join());
+            }
+            result.complete(results);
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If the broker closed the channel and the connection is still open, the publish thread
+     * is woken up to open a new channel at once. Otherwise the topology cache is invalidated
+     * and publishes still waiting for a confirm fail, the broker will never confirm them.
+     */
+    @Override
+    public void shutdownCompleted(ShutdownSignalException shutdownSignalException) {
+        if (shutdownSignalException != null && shutdownSignalException.getReference() instanceof Channel
+                && shutdownSignalException.getReference() != channel) {
+            // A channel that was already replaced.
+            return;
+        }
+        if (canReopen(shutdownSignalException)) {
+            LOGGER.warn("RabbitMQ channel {} for publish was closed by the broker: {}",
+                    channel.getChannelNumber(), shutdownSignalException.getMessage());
+            try {
+                // Nothing blocking on the connection thread, the channel is opened by the publish thread.
+                scheduler.execute(PublishLane.CONTROL, 0, this::openChannel);
+                return;
+            } catch (RejectedExecutionException e) {
+                // Closed in the meantime.
+            }
+        }
+        closed(shutdownSignalException);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * A channel closed by the broker and not reopened yet is not closed again.
+     */
+    @Override
+    public void close() throws IOException {
+        Channel ch = channel;
+        if (state == RabbitState.CONNECTED && ch != null && !ch.isOpen()) {
+            closed(ch.getCloseReason());
+            return;
+        }
+        super.close();
+    }
+
+    /**
+     * Closes this for good.
+     *
+     * @param shutdownSignalException the reason of the close.
+     */
+    private void closed(ShutdownSignalException shutdownSignalException) {
+        if (!terminated.compareAndSet(false, true)) {
+            return;
+        }
+        super.shutdownCompleted(shutdownSignalException);
+        // Queued tasks still run and fail, then the thread ends.
+        publishExecutor.shutdown();
+        topologyCache.invalidate();
+        for (Map.Entry<Long, PendingConfirm> entry = outstanding.pollFirstEntry(); entry != null; entry = outstanding.pollFirstEntry()) {
+            resolve(entry.getValue(), false, "Channel closed before publish was confirmed.");
+        }
+        // Queued tasks were waiting for room, they now run and fail.
+        scheduler.wakeUp();
+    }
+
+    /**
+     * Sends publish waiting for its confirm. If the channel is closed under it, the publish
+     * stays outstanding and is sent again once a new channel is opened.
+     *
+     * @param ch the channel.
+     * @param pending the publish.
+     */
+    private void send(Channel ch, PendingConfirm pending) {
+        PublishTask task = pending.task;
+        pending.attempts++;
+        long seqNo = ch.getNextPublishSeqNo();
+        outstanding.put(seqNo, pending);
+        try {
+            ch.basicPublish(task.exchangeName, task.routingKey, task.props, task.body);
+        } catch (IOException | RuntimeException e) {
+            if (!ch.isOpen() && canReopen(ch.getCloseReason())) {
+                LOGGER.debug("Channel closed while publishing, message is sent again on the next channel.");
+                return;
+            }
+            LOGGER.warn("Failed to publish message.", e);
+            if (outstanding.remove(seqNo) != null) {
+                resolve(pending, false, "Failed to publish message.");
+            }
+        }
+    }
+
+    /**
+     * Completes pending confirms up to sequence number.
+     */
+    private void confirm(long deliveryTag, boolean multiple, boolean ack) {
+        String message = ack ? "Published" : "Rejected by broker.";
+        if (multiple) {
+            ConcurrentNavigableMap<Long, PendingConfirm> confirmed = outstanding.headMap(deliveryTag, true);
+            for (Map.Entry<Long, PendingConfirm> entry = confirmed.pollFirstEntry(); entry != null; entry = confirmed.pollFirstEntry()) {
+                resolve(entry.getValue(), ack, message);
+            }
+        } else {
+            PendingConfirm pending = outstanding.remove(deliveryTag);
+            if (pending != null) {
+                resolve(pending, ack, message);
+            }
+        }
+        // Tasks waiting for room in the window may run now.
+        scheduler.wakeUp();
+    }
+
+    private void resolve(PendingConfirm pending, boolean success, String message) {
+        pending.result.complete(new PublishResult(success, message, pending.task.exchangeName));
+    }
+
     /**
      * {@inheritDoc}
      */
+    public PublishResult setupExchange(String exchangeName, String queueName) {
+        return setupExchange(exchangeName, queueName, ExchangeType.FANOUT, "");
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns at once if the binding is already declared on this connection.
+     */
     public PublishResult setupExchange(String exchangeName, String queueName,
             ExchangeType exchangeType, String routingKey) {
-        Future<PublishResult> future = publishExecutor.submit(
-                new PrepareTask(exchangeName, queueName, exchangeType, routingKey));
+        if (exchangeName != null && queueName != null && topologyCache.isDeclared(
+                new TopologyCache.Binding(exchangeName, exchangeType, queueName, routingKey, false))) {
+            return new PublishResult(true, "SUCCESS", exchangeName, queueName, exchangeType, routingKey);
+        }
         PublishResult result = null;
         try {
+            FutureTask<PublishResult> future = new FutureTask<>(
+                    new PrepareTask(exchangeName, queueName, exchangeType, routingKey));
+            scheduler.execute(PublishLane.CONTROL, 0, future);
             result = future.get();
         } catch (Exception e) {
             LOGGER.warn(e.getMessage());
@@ -108,28 +588,113 @@ public class PublishRMQChannel extends AbstractRMQChannel implements PublishChan
          */
         public PublishTask(String exchangeName, String routingKey,
                 AMQP.BasicProperties props, byte[] body) {
+            this(exchangeName, routingKey, props, body, false);
+        }
+
+        /**
+         * Create instance.
+         *
+         * @param exchangeName the exchange name.
+         * @param routingKey the routing key.
+         * @param props the properties for AMQP headers.
+         * @param body the message body.
+         * @param owned true if the body is handed over by the caller and need not be copied.
+         */
+        PublishTask(String exchangeName, String routingKey,
+                AMQP.BasicProperties props, byte[] body, boolean owned) {
             this.exchangeName = exchangeName;
             this.routingKey = routingKey;
             this.props = props;
-            this.body = Arrays.copyOf(body, body.length);
+            this.body = owned || body == null ? body : Arrays.copyOf(body, body.length);
         }
 
         /**
          * {@inheritDoc}
          */
         public PublishResult call() throws Exception {
-            if (channel != null && channel.isOpen()) {
-                if (body != null) {
-                    try {
-                        channel.basicPublish(exchangeName, routingKey, props, body);
-                        return new PublishResult(true, "Published", exchangeName);
-                    } catch (IOException e) {
+            for (int attempt = 1; ; attempt++) {
+                Channel ch = openChannel();
+                if (ch == null || body == null) {
+                    return new PublishResult(false, "Channel is not opened.", exchangeName);
+                }
+                try {
+                    ch.basicPublish(exchangeName, routingKey, props, body);
+                    return new PublishResult(true, "Published", exchangeName);
+                } catch (IOException | RuntimeException e) {
+                    if (ch.isOpen() || attempt >= MAX_PUBLISH_ATTEMPTS) {
                         LOGGER.warn("Failed to publish message.", e);
                         return new PublishResult(false, "Failed to publish message.", exchangeName);
                     }
                 }
             }
-            return new PublishResult(false, "Channel is not opened.", exchangeName);
+        }
+
+        /**
+         * Publishes message and completes result once the outcome is known.
+         *
+         * @param result the result to complete.
+         */
+        void publishTo(CompletableFuture<PublishResult> result) {
+            try {
+                if (confirms) {
+                    publishConfirmed(result);
+                } else {
+                    result.complete(call());
+                }
+            } catch (Exception e) {
+                // Never left pending, callers would wait for it until they time out.
+                result.complete(new PublishResult(false, String.valueOf(e.getMessage()), exchangeName));
+            }
+        }
+
+        /**
+         * Publishes message in confirm mode. The result is completed by the confirm listener,
+         * the scheduler only runs this once there is room in the confirm window.
+         *
+         * @param result the result to complete.
+         */
+        void publishConfirmed(CompletableFuture<PublishResult> result) {
+            Channel ch = openChannel();
+            if (ch == null || body == null) {
+                result.complete(new PublishResult(false, "Channel is not opened.", exchangeName));
+                return;
+            }
+            send(ch, new PendingConfirm(this, result));
+        }
+    }
+
+    /**
+     * A publish waiting for its confirm.
+     */
+    private static final class PendingConfirm {
+
+        private final PublishTask task;
+        private final CompletableFuture<PublishResult> result;
+        private int attempts;
+
+        PendingConfirm(PublishTask task, CompletableFuture<PublishResult> result) {
+            this.task = task;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Completes outstanding publishes as the broker confirms them.
+     */
+    private class OutstandingConfirmListener implements ConfirmListener {
+
+        /**
+         * {@inheritDoc}
+         */
+        public void handleAck(long deliveryTag, boolean multiple) {
+            confirm(deliveryTag, multiple, true);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        public void handleNack(long deliveryTag, boolean multiple) {
+            confirm(deliveryTag, multiple, false);
         }
     }
 
@@ -164,7 +729,11 @@ public class PublishRMQChannel extends AbstractRMQChannel implements PublishChan
          * {@inheritDoc}
          */
         public PublishResult call() throws Exception {
-            if (channel != null && channel.isOpen()) {
+            Channel ch = openChannel();
+            if (ch != null) {
+                TopologyCache cache = topologyCache;
+                long generation = cache.getGeneration();
+                boolean declareExchange = false;
                 if (queueName == null) {
                     return createPublishResult(false, "Queue name should not be null.");
                 }
@@ -172,18 +741,21 @@ public class PublishRMQChannel extends AbstractRMQChannel implements PublishChan
                 if (exchangeName == null) {
                     exchangeName = UUID.randomUUID().toString();
                     try {
-                        channel.exchangeDeclare(exchangeName, exchangeType.name().toLowerCase());
+                        ch.exchangeDeclare(exchangeName, exchangeType.name().toLowerCase());
+                        declareExchange = true;
                     } catch (IOException e) {
                         return createPublishResult(false, e.getMessage());
                     }
                 }
 
                 try {
-                    channel.queueBind(queueName, exchangeName, routingKey);
+                    ch.queueBind(queueName, exchangeName, routingKey);
                 } catch (IOException e) {
                     return createPublishResult(false, e.getMessage());
                 }
 
+                cache.declared(new TopologyCache.Binding(
+                        exchangeName, exchangeType, queueName, routingKey, declareExchange), generation);
                 return createPublishResult(true, "SUCCESS");
             }
             return createPublishResult(false, "Channel is not opened.");
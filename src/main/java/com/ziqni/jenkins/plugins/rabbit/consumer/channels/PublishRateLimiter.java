@@ -0,0 +1,118 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.channels;
+
+import com.ziqni.jenkins.plugins.rabbit.consumer.ExchangeRateLimit;
+import com.ziqni.jenkins.plugins.rabbit.consumer.utils.TokenBucket;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rate limits of publishes, shared by the publish channels of a connection.
+ *
+ * A publish takes one message and its body size in bytes from the global buckets and from
+ * the buckets of its exchange, then waits until every bucket it took from is back in credit.
+ * The wait is left to the caller, so that a publish thread can serve other work meanwhile.
+ * This smooths floods on our side, before the broker raises a memory alarm and blocks every
+ * publisher of the connection.
+ */
+public class PublishRateLimiter {
+
+    private volatile Limits global = Limits.NONE;
+    private volatile Map<String, Limits> exchanges = Collections.emptyMap();
+
+    /**
+     * Creates instance without limits.
+     */
+    public PublishRateLimiter() {
+    }
+
+    /**
+     * Sets limits. Buckets of unchanged limits are kept.
+     *
+     * @param messagesPerSecond the global maximum number of messages per second, 0 if unbounded.
+     * @param bytesPerSecond the global maximum number of body bytes per second, 0 if unbounded.
+     * @param exchangeLimits the limits per exchange, may be null.
+     */
+    public synchronized void configure(long messagesPerSecond, long bytesPerSecond,
+                                       Collection<ExchangeRateLimit> exchangeLimits) {
+        global = global.update(messagesPerSecond, bytesPerSecond);
+        Map<String, Limits> next = new HashMap<>();
+        if (exchangeLimits != null) {
+            for (ExchangeRateLimit l : exchangeLimits) {
+                Limits current = exchanges.getOrDefault(l.getExchangeName(), Limits.NONE);
+                Limits updated = current.update(l.getMessagesPerSecond(), l.getBytesPerSecond());
+                if (updated != Limits.NONE) {
+                    next.put(l.getExchangeName(), updated);
+                }
+            }
+        }
+        exchanges = next;
+    }
+
+    /**
+     * Gets whether any limit is set.
+     *
+     * @return true if so.
+     */
+    public boolean isLimited() {
+        return global != Limits.NONE || !exchanges.isEmpty();
+    }
+
+    /**
+     * Takes a message from the limits, even if they are exceeded.
+     *
+     * @param exchangeName the exchange name.
+     * @param bytes the size of the body.
+     * @return the time in nanos to wait before the message is published, 0 if none.
+     */
+    public long reserve(String exchangeName, int bytes) {
+        long wait = global.reserve(bytes);
+        Limits exchange = exchanges.get(exchangeName);
+        if (exchange != null) {
+            wait = Math.max(wait, exchange.reserve(bytes));
+        }
+        return wait;
+    }
+
+    /**
+     * Buckets of messages and bytes, either may be null if unbounded.
+     */
+    private static final class Limits {
+
+        static final Limits NONE = new Limits(null, null);
+
+        private final TokenBucket messages;
+        private final TokenBucket bytes;
+
+        Limits(TokenBucket messages, TokenBucket bytes) {
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+
+        long reserve(int size) {
+            long wait = 0;
+            if (messages != null) {
+                wait = messages.reserve(1);
+            }
+            if (bytes != null) {
+                wait = Math.max(wait, bytes.reserve(size));
+            }
+            return wait;
+        }
+
+        Limits update(long messagesPerSecond, long bytesPerSecond) {
+            TokenBucket m = messagesPerSecond <= 0 ? null
+                    : messages != null && messages.getRatePerSecond() == messagesPerSecond ? messages
+                    : new TokenBucket(messagesPerSecond);
+            TokenBucket b = bytesPerSecond <= 0 ? null
+                    : bytes != null && bytes.getRatePerSecond() == bytesPerSecond ? bytes
+                    : new TokenBucket(bytesPerSecond);
+            if (m == null && b == null) {
+                return NONE;
+            }
+            return m == messages && b == bytes ? this : new Limits(m, b);
+        }
+    }
+}
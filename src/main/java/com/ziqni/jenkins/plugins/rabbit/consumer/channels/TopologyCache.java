@@ -0,0 +1,200 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.channels;
+
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.ExchangeType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of exchanges and bindings declared by publish channels.
+ *
+ * A binding that is declared on the current connection is not declared again. When a publish
+ * channel or the connection closes, the cache is invalidated: bindings are kept, but are stale
+ * until they are declared again, either by the next call for them or in bulk once a publish
+ * channel is opened on the new connection.
+ *
+ * Each invalidation starts a new generation, a declare that was started in an earlier
+ * generation does not mark its binding as declared.
+ */
+public class TopologyCache {
+
+    private final Set<Binding> known = ConcurrentHashMap.newKeySet();
+    private final Set<Binding> declared = ConcurrentHashMap.newKeySet();
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Creates instance.
+     */
+    public TopologyCache() {
+    }
+
+    /**
+     * Gets the current generation.
+     *
+     * @return the generation.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Gets whether binding is declared on the current connection.
+     *
+     * @param binding the binding.
+     * @return true if so.
+     */
+    public boolean isDeclared(Binding binding) {
+        return declared.contains(binding);
+    }
+
+    /**
+     * Records that binding was declared.
+     *
+     * @param binding the binding.
+     * @param declaredGeneration the generation in which the declare was started.
+     */
+    public void declared(Binding binding, long declaredGeneration) {
+        known.add(binding);
+        if (declaredGeneration == generation.get()) {
+            declared.add(binding);
+            // Invalidated in the meantime, the binding must be declared again.
+            if (declaredGeneration != generation.get()) {
+                declared.remove(binding);
+            }
+        }
+    }
+
+    /**
+     * Forgets binding, it is no longer declared again.
+     *
+     * @param binding the binding.
+     */
+    public void forget(Binding binding) {
+        known.remove(binding);
+        declared.remove(binding);
+    }
+
+    /**
+     * Marks all bindings as stale.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        declared.clear();
+    }
+
+    /**
+     * Forgets all bindings, for example if the broker was changed.
+     */
+    public void clear() {
+        invalidate();
+        known.clear();
+    }
+
+    /**
+     * Gets bindings that are known but not declared on the current connection.
+     *
+     * @return the list of bindings.
+     */
+    public List<Binding> getStale() {
+        List<Binding> stale = new ArrayList<>();
+        for (Binding b : known) {
+            if (!declared.contains(b)) {
+                stale.add(b);
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * A binding of queue to exchange, with the exchange if it was declared by the plugin.
+     */
+    public static final class Binding {
+
+        private final String exchangeName;
+        private final ExchangeType exchangeType;
+        private final String queueName;
+        private final String routingKey;
+        private final boolean declareExchange;
+
+        /**
+         * Create instance.
+         *
+         * @param exchangeName the exchange name.
+         * @param exchangeType the exchange type.
+         * @param queueName the queue name.
+         * @param routingKey the routing key.
+         * @param declareExchange true if the exchange is declared with the binding.
+         */
+        public Binding(String exchangeName, ExchangeType exchangeType, String queueName, String routingKey,
+                       boolean declareExchange) {
+            this.exchangeName = exchangeName;
+            this.exchangeType = exchangeType;
+            this.queueName = queueName;
+            this.routingKey = routingKey;
+            this.declareExchange = declareExchange;
+        }
+
+        /**
+         * Gets exchange name.
+         * @return exchange name.
+         */
+        public String getExchangeName() {
+            return exchangeName;
+        }
+
+        /**
+         * Gets exchange type.
+         * @return exchange type.
+         */
+        public ExchangeType getExchangeType() {
+            return exchangeType;
+        }
+
+        /**
+         * Gets queue name.
+         * @return queue name.
+         */
+        public String getQueueName() {
+            return queueName;
+        }
+
+        /**
+         * Gets routing key.
+         * @return routing key.
+         */
+        public String getRoutingKey() {
+            return routingKey;
+        }
+
+        /**
+         * Gets whether the exchange is declared with the binding.
+         * @return true if so.
+         */
+        public boolean isDeclareExchange() {
+            return declareExchange;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Binding)) {
+                return false;
+            }
+            Binding other = (Binding) obj;
+            return Objects.equals(exchangeName, other.exchangeName)
+                    && Objects.equals(queueName, other.queueName)
+                    && Objects.equals(routingKey, other.routingKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(exchangeName, queueName, routingKey);
+        }
+    }
+}
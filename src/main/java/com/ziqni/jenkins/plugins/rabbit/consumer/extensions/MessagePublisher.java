@@ -4,11 +4,14 @@ import com.rabbitmq.client.AMQP;
 import hudson.Extension;
 import hudson.ExtensionList;
 import com.ziqni.jenkins.plugins.rabbit.consumer.RabbitManager;
-import com.ziqni.jenkins.plugins.rabbit.consumer.channels.PublishRMQChannel;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishChannel;
 import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishResult;
 import jenkins.model.Jenkins;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Extension class to publish message to RabbitMQ.
@@ -29,13 +32,34 @@ public class MessagePublisher {
      */
     Future<PublishResult> publish(String exchangeName, String routingKey,
                                   AMQP.BasicProperties props, byte[] body) {
-        PublishRMQChannel ch = RabbitManager.getInstance().getPublishChannel();
+        PublishChannel ch = RabbitManager.getInstance().getPublishChannelPool();
         if (ch != null && ch.isOpen()) {
             return ch.publish(exchangeName, routingKey, props, body);
         }
         return null;
     }
 
+    /**
+     * Publish message asynchronously.
+     *
+     * @param exchangeName the exhange name.
+     * @param routingKey the routing key.
+     * @param props the list of property.
+     * @param body the content.
+     * @param timeout the time to wait for the result.
+     * @param unit the unit of timeout.
+     * @return stage of PublishResult, failed result if channel is not opened.
+     */
+    CompletionStage<PublishResult> publishAsync(String exchangeName, String routingKey,
+                                                AMQP.BasicProperties props, byte[] body,
+                                                long timeout, TimeUnit unit) {
+        PublishChannel ch = RabbitManager.getInstance().getPublishChannelPool();
+        if (ch != null && ch.isOpen()) {
+            return ch.publishAsync(exchangeName, routingKey, props, body, timeout, unit);
+        }
+        return CompletableFuture.completedFuture(new PublishResult(false, "Channel is not opened.", exchangeName));
+    }
+
     /**
      * Get extension instance.
      *
@@ -2,6 +2,7 @@ package com.ziqni.jenkins.plugins.rabbit.consumer.extensions;
 
 import com.ziqni.jenkins.plugins.rabbit.utils.RabbitMessageProperties;
 import hudson.ExtensionList;
+import hudson.ExtensionListListener;
 import hudson.ExtensionPoint;
 import hudson.security.ACL;
 import jenkins.model.Jenkins;
@@ -10,17 +11,28 @@ import org.acegisecurity.context.SecurityContextHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Listener for message queue.
  *
+ * Events are routed through an index of listeners by application id, so a message costs
+ * a single lookup. The index is built on first use and again whenever the extension list
+ * changes, the application id of a listener is read at that time. It belongs to the extension
+ * list it was built from, so a new Jenkins instance gets an index of its own.
+ *
  * @author rinrinne a.k.a. rin_ne
  */
 public abstract class MessageQueueListener implements ExtensionPoint {
     private static final Logger LOGGER = LoggerFactory.getLogger(MessageQueueListener.class);
 
+    private static volatile Index index;
+
     /**
      * Gets name.
      *
@@ -71,13 +83,11 @@ public abstract class MessageQueueListener implements ExtensionPoint {
         LOGGER.trace("MessageQueueListener", "fireOnReceive");
         SecurityContext old = ACL.impersonate(ACL.SYSTEM);
         try {
-            for (MessageQueueListener l : all()) {
-                if (rabbitMessageProperties.getAppId().equals(l.getAppId())) {
-                    try {
-                        l.onReceive(rabbitMessageProperties, body);
-                    } catch (Exception ex) {
-                        LOGGER.warn("Caught exception during calling onReceive()", ex);
-                    }
+            for (MessageQueueListener l : getListeners(rabbitMessageProperties.getAppId())) {
+                try {
+                    l.onReceive(rabbitMessageProperties, body);
+                } catch (Exception ex) {
+                    LOGGER.warn("Caught exception during calling onReceive()", ex);
                 }
             }
         }
@@ -98,8 +108,8 @@ public abstract class MessageQueueListener implements ExtensionPoint {
         LOGGER.trace("MessageQueueListener", "fireOnBind");
         SecurityContext old = ACL.impersonate(ACL.SYSTEM);
         try {
-            for (MessageQueueListener l : all()) {
-                if (appIds.contains(l.getAppId())) {
+            for (String appId : appIds) {
+                for (MessageQueueListener l : getListeners(appId)) {
                     try {
                         l.onBind(queueName);
                     } catch (Exception ex) {
@@ -125,8 +135,8 @@ public abstract class MessageQueueListener implements ExtensionPoint {
         LOGGER.trace("MessageQueueListener", "fireOnUnbind");
         SecurityContext old = ACL.impersonate(ACL.SYSTEM);
         try {
-            for (MessageQueueListener l : all()) {
-                if (appIds.contains(l.getAppId())) {
+            for (String appId : appIds) {
+                for (MessageQueueListener l : getListeners(appId)) {
                     try {
                         l.onUnbind(queueName);
                     } catch (Exception ex) {
@@ -140,6 +150,90 @@ public abstract class MessageQueueListener implements ExtensionPoint {
         }
     }
 
+    /**
+     * Gets listeners of application id.
+     *
+     * @param appId
+     *            the application id.
+     * @return the listeners in extension order, empty if none.
+     */
+    public static List<MessageQueueListener> getListeners(String appId) {
+        ExtensionList<MessageQueueListener> extensions = all();
+        Index current = index;
+        if (current == null || current.extensions != extensions) {
+            current = buildIndex(extensions, true);
+        }
+        List<MessageQueueListener> listeners = appId != null ? current.listenersByAppId.get(appId) : null;
+        return listeners != null ? listeners : Collections.<MessageQueueListener>emptyList();
+    }
+
+    /**
+     * Builds the index of listeners by application id.
+     *
+     * @param extensions
+     *            the extension list of the current Jenkins instance.
+     * @param lazy
+     *            true if an index of the same list built in the meantime is kept.
+     * @return the index.
+     */
+    private static synchronized Index buildIndex(ExtensionList<MessageQueueListener> extensions, boolean lazy) {
+        Index current = index;
+        if (lazy && current != null && current.extensions == extensions) {
+            return current;
+        }
+        if (current == null || current.extensions != extensions) {
+            // First index of this list, e.g. after Jenkins was restarted in the same classloader.
+            extensions.addListener(new IndexUpdater(extensions));
+        }
+        Map<String, List<MessageQueueListener>> byAppId = new HashMap<String, List<MessageQueueListener>>();
+        for (MessageQueueListener l : extensions) {
+            String appId = l.getAppId();
+            if (appId != null) {
+                byAppId.computeIfAbsent(appId, k -> new ArrayList<MessageQueueListener>()).add(l);
+            }
+        }
+        for (Map.Entry<String, List<MessageQueueListener>> entry : byAppId.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        index = new Index(extensions, Collections.unmodifiableMap(byAppId));
+        return index;
+    }
+
+    /**
+     * Listeners by application id, along with the extension list they were read from.
+     */
+    private static final class Index {
+        private final ExtensionList<MessageQueueListener> extensions;
+        private final Map<String, List<MessageQueueListener>> listenersByAppId;
+
+        Index(ExtensionList<MessageQueueListener> extensions, Map<String, List<MessageQueueListener>> listenersByAppId) {
+            this.extensions = extensions;
+            this.listenersByAppId = listenersByAppId;
+        }
+    }
+
+    /**
+     * Rebuilds the index when listeners are added or removed.
+     */
+    private static final class IndexUpdater extends ExtensionListListener {
+        private final ExtensionList<MessageQueueListener> extensions;
+
+        IndexUpdater(ExtensionList<MessageQueueListener> extensions) {
+            this.extensions = extensions;
+        }
+
+        @Override
+        public void onChange() {
+            synchronized (MessageQueueListener.class) {
+                // A list of a previous Jenkins instance no longer owns the index.
+                Index current = index;
+                if (current != null && current.extensions == extensions) {
+                    buildIndex(extensions, false);
+                }
+            }
+        }
+    }
+
     /**
      * Gets all listeners.
      *
@@ -0,0 +1,846 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.publishers;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.LongString;
+import com.rabbitmq.client.impl.LongStringHelper;
+import jenkins.model.Jenkins;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Persistent outbox for build status and receipt messages.
+ *
+ * Every message is appended to a log under JENKINS_HOME before it is published, and marked as
+ * delivered once the broker took it. Messages that could not be published stay in the outbox
+ * and are sent again by {@link #sendDue()}, with exponential backoff. Messages are delivered at
+ * least once: a publish that timed out may still have reached the broker.
+ *
+ * Messages are queued per destination, i.e. exchange and routing key. A destination has at most
+ * one publish in flight and a message is only published at once if nothing of its destination is
+ * waiting, so messages of a destination are sent in order. A message that fails may still be
+ * overtaken by later messages of the same batch. Destinations back off independently, so a
+ * message that cannot be delivered never holds up the others.
+ *
+ * A message that failed {@link #MAX_ATTEMPTS} times, or that is older than {@link #MAX_AGE_MILLIS},
+ * is moved to the parked log next to the outbox and a warning is logged.
+ *
+ * The logs are laid out as records of:
+ * <pre>
+ * byte    kind, message or delivered
+ * long    id
+ * ...     creation time, exchange, routing key, properties and body if kind is message
+ * </pre>
+ * Strings and byte arrays are prefixed with their length. Header values are prefixed with their
+ * AMQP field type, so they are published again with the type they were submitted with.
+ * Delivered records are dropped by compaction, which rewrites the log with the pending messages
+ * only. The log is deleted once nothing is pending.
+ */
+public class BuildEventOutbox {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BuildEventOutbox.class);
+
+    /**
+     * Name of the outbox directory in JENKINS_HOME.
+     */
+    public static final String DIR_NAME = "rabbit-outbox";
+
+    /**
+     * Number of delivered records after which the log is compacted.
+     */
+    static final int COMPACT_THRESHOLD = 64;
+
+    /**
+     * Delay in millis before the first retry.
+     */
+    static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+    /**
+     * Maximum delay in millis between retries.
+     */
+    static final long MAX_BACKOFF_MILLIS = 300000;
+
+    /**
+     * Maximum number of messages sent in one go.
+     */
+    static final int MAX_BATCH_MESSAGES = 64;
+
+    /**
+     * Number of failed publishes after which a message is parked.
+     * Attempts while the channel is not open are not counted.
+     */
+    static final int MAX_ATTEMPTS = 10;
+
+    /**
+     * Age in millis after which a message that is still pending is parked.
+     */
+    static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    static final String LOG_NAME = "outbox.log";
+    static final String PARKED_NAME = "parked.log";
+    private static final byte KIND_MESSAGE = 'M';
+    private static final byte KIND_DELIVERED = 'D';
+
+    private static BuildEventOutbox instance;
+
+    private final File dir;
+    private final File log;
+    private final Supplier<PublishChannel> channel;
+    private final LongSupplier clock;
+    private final Map<Long, Entry> pending = new LinkedHashMap<>();
+    private final Map<String, Destination> destinations = new LinkedHashMap<>();
+
+    private long nextId = 0;
+    private FileOutputStream file;
+    private DataOutputStream writer;
+    private int deliveredRecords = 0;
+    private boolean sending = false;
+
+    /**
+     * Creates instance with specified parameters.
+     * Messages left in the log by a previous run are loaded as pending.
+     *
+     * @param dir the outbox directory.
+     * @param channel the supplier of the publish channel.
+     */
+    public BuildEventOutbox(File dir, Supplier<PublishChannel> channel) {
+        this(dir, channel, System::currentTimeMillis);
+    }
+
+    BuildEventOutbox(File dir, Supplier<PublishChannel> channel, LongSupplier clock) {
+        this.dir = dir;
+        this.log = new File(dir, LOG_NAME);
+        this.channel = channel;
+        this.clock = clock;
+        load();
+    }
+
+    /**
+     * Gets the outbox in JENKINS_HOME, creating it on first use.
+     *
+     * @return the outbox.
+     */
+    public static synchronized BuildEventOutbox get() {
+        if (instance == null) {
+            instance = new BuildEventOutbox(new File(Jenkins.get().getRootDir(), DIR_NAME),
+                    PublishChannelFactory::getPublishChannel);
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the number of messages waiting for delivery.
+     *
+     * @return the number of messages.
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Submits message.
+     *
+     * The message is stored in the outbox, then published at once unless earlier messages of
+     * its destination are waiting. This is non-blocking method.
+     *
+     * @param message the message.
+     * @param timeout the time to wait for the publish.
+     * @param unit the unit of timeout.
+     * @return the result of the first attempt. If it failed, the message is sent again later.
+     */
+    public CompletableFuture<PublishResult> submit(OutboundMessage message, long timeout, TimeUnit unit) {
+        Entry entry;
+        Destination destination;
+        synchronized (this) {
+            entry = new Entry(nextId++, clock.getAsLong(), message);
+            try {
+                write(entry);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to store message in outbox, it is only kept in memory.", e);
+            }
+            destination = add(entry);
+            if (destination.entries.size() > 1) {
+                // Earlier messages of the destination go first.
+                return CompletableFuture.completedFuture(queued(message));
+            }
+            destination.inFlight = true;
+        }
+
+        PublishChannel ch = channel.get();
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                destination.inFlight = false;
+                destination.backOff(clock.getAsLong());
+            }
+            return CompletableFuture.completedFuture(queued(message));
+        }
+        return ch.publishAsync(message.getExchangeName(), message.getRoutingKey(), message.getProps(),
+                message.getBody(), timeout, unit).toCompletableFuture().thenApply(result -> {
+                    synchronized (this) {
+                        destination.inFlight = false;
+                        if (result.isSuccess()) {
+                            destination.reset();
+                            delivered(entry);
+                            return result;
+                        }
+                        destination.backOff(clock.getAsLong());
+                        failed(entry, result.getMessage());
+                    }
+                    return new PublishResult(false, result.getMessage() + " Queued for retry.", message.getExchangeName());
+                });
+    }
+
+    /**
+     * Sends pending messages of destinations whose backoff has elapsed.
+     * Called periodically, at most one batch is in flight. This is non-blocking method,
+     * the outcome of the batch is recorded on {@link PublishCallbackExecutor}.
+     *
+     * @return the stage that completes once the outcome of the batch is recorded.
+     */
+    public CompletableFuture<Void> sendDue() {
+        List<Entry> batch = new ArrayList<>();
+        List<Destination> sent = new ArrayList<>();
+        synchronized (this) {
+            if (sending || pending.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            long now = clock.getAsLong();
+            parkExpired(now);
+            for (Destination d : destinations.values()) {
+                if (batch.size() >= MAX_BATCH_MESSAGES) {
+                    break;
+                }
+                if (d.inFlight || now < d.nextAttempt) {
+                    continue;
+                }
+                for (Entry e : d.entries) {
+                    if (batch.size() >= MAX_BATCH_MESSAGES) {
+                        break;
+                    }
+                    batch.add(e);
+                }
+                d.inFlight = true;
+                sent.add(d);
+            }
+            if (batch.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            sending = true;
+        }
+
+        CompletableFuture<List<PublishResult>> results;
+        try {
+            PublishChannel ch = channel.get();
+            if (ch != null && ch.isOpen()) {
+                List<OutboundMessage> messages = new ArrayList<>(batch.size());
+                for (Entry e : batch) {
+                    messages.add(e.message);
+                }
+                results = toStage(ch.publishAll(messages))
+                        .orTimeout(PublishChannel.DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } else {
+                results = CompletableFuture.completedFuture(null);
+            }
+        } catch (RuntimeException e) {
+            results = CompletableFuture.failedFuture(e);
+        }
+        // Never on a channel or connection thread, recording may write to disk.
+        return results.handleAsync((r, e) -> {
+            String error = null;
+            if (e != null) {
+                // The batch may have reached the broker, attempts are counted.
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                error = cause instanceof TimeoutException ? "Timed out waiting for publish." : String.valueOf(cause.getMessage());
+                LOGGER.warn("Failed to send messages from outbox: {}", error);
+            }
+            sent(batch, sent, r, error);
+            return null;
+        }, PublishCallbackExecutor.get());
+    }
+
+    private static CompletableFuture<List<PublishResult>> toStage(Future<List<PublishResult>> future) {
+        if (future instanceof CompletableFuture) {
+            return (CompletableFuture<List<PublishResult>>) future;
+        }
+        // Only a plain Future, a callback thread waits for it.
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return future.get(PublishChannel.DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            } catch (ExecutionException | TimeoutException e) {
+                throw new CompletionException(e instanceof ExecutionException ? e.getCause() : e);
+            }
+        }, PublishCallbackExecutor.get());
+    }
+
+    /**
+     * Records the outcome of a batch.
+     *
+     * @param batch the messages of the batch.
+     * @param sent the destinations of the batch.
+     * @param results the results in order, null if the batch was not published.
+     * @param error the error if the batch failed as a whole, null if none.
+     */
+    private synchronized void sent(List<Entry> batch, List<Destination> sent, List<PublishResult> results, String error) {
+        long now = clock.getAsLong();
+        int delivered = 0;
+        for (Destination d : sent) {
+            d.inFlight = false;
+            d.failed = false;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Entry e = batch.get(i);
+            Destination d = destinations.get(e.destination);
+            if (results != null && results.get(i).isSuccess()) {
+                delivered(e);
+                delivered++;
+                continue;
+            }
+            if (d != null) {
+                d.failed = true;
+            }
+            if (results != null) {
+                failed(e, results.get(i).getMessage());
+            } else if (error != null) {
+                failed(e, error);
+            }
+        }
+        for (Destination d : sent) {
+            if (d.entries.isEmpty()) {
+                destinations.remove(d.key, d);
+            } else if (d.failed) {
+                d.backOff(now);
+            } else {
+                d.reset();
+            }
+        }
+        sending = false;
+        if (delivered > 0 && delivered == batch.size()) {
+            LOGGER.info("Sent {} messages from outbox.", delivered);
+        }
+    }
+
+    /**
+     * Gets the earliest time in millis a destination is retried, 0 if none is backing off.
+     *
+     * @return the time in millis.
+     */
+    synchronized long getNextAttempt() {
+        long next = 0;
+        for (Destination d : destinations.values()) {
+            if (d.nextAttempt > 0 && (next == 0 || d.nextAttempt < next)) {
+                next = d.nextAttempt;
+            }
+        }
+        return next;
+    }
+
+    private static PublishResult queued(OutboundMessage message) {
+        return new PublishResult(false, "Channel is not opened. Queued for retry.", message.getExchangeName());
+    }
+
+    private static String destinationOf(OutboundMessage message) {
+        return message.getExchangeName() + "\n" + message.getRoutingKey();
+    }
+
+    /**
+     * Adds entry to the pending messages and to its destination.
+     * Must be called while holding the lock.
+     */
+    private Destination add(Entry entry) {
+        pending.put(entry.id, entry);
+        Destination d = destinations.computeIfAbsent(entry.destination, Destination::new);
+        d.entries.add(entry);
+        return d;
+    }
+
+    /**
+     * Counts a failed publish and parks the message once it failed too often.
+     * Must be called while holding the lock.
+     */
+    private void failed(Entry entry, String reason) {
+        if (++entry.attempts >= MAX_ATTEMPTS) {
+            park(entry, "failed " + entry.attempts + " times, last error: " + reason);
+        }
+    }
+
+    /**
+     * Parks messages older than the age limit that are not in flight.
+     * Must be called while holding the lock.
+     */
+    private void parkExpired(long now) {
+        List<Entry> expired = new ArrayList<>();
+        for (Destination d : destinations.values()) {
+            if (d.inFlight) {
+                continue;
+            }
+            for (Entry e : d.entries) {
+                if (now - e.createdAt > MAX_AGE_MILLIS) {
+                    expired.add(e);
+                }
+            }
+        }
+        for (Entry e : expired) {
+            park(e, "not delivered within " + TimeUnit.MILLISECONDS.toHours(MAX_AGE_MILLIS) + " hours");
+        }
+    }
+
+    /**
+     * Moves message to the parked log, then drops it from the outbox.
+     * Must be called while holding the lock.
+     */
+    private void park(Entry entry, String reason) {
+        File parked = new File(dir, PARKED_NAME);
+        try {
+            Files.createDirectories(dir.toPath());
+            byte[] record = encode(entry);
+            try (FileOutputStream fos = new FileOutputStream(parked, true)) {
+                fos.write(record);
+                fos.getChannel().force(false);
+            }
+            LOGGER.warn("Parked outbox message {} to exchange '{}' with routing key '{}', it {}. It is kept in {}.",
+                    entry.id, entry.message.getExchangeName(), entry.message.getRoutingKey(), reason, parked);
+        } catch (IOException e) {
+            LOGGER.warn("Dropped outbox message {} to exchange '{}' with routing key '{}', it {}. It could not be parked.",
+                    entry.id, entry.message.getExchangeName(), entry.message.getRoutingKey(), reason, e);
+        }
+        delivered(entry);
+    }
+
+    /**
+     * Drops message from the outbox.
+     * Must be called while holding the lock.
+     */
+    private void delivered(Entry entry) {
+        if (pending.remove(entry.id) == null) {
+            return;
+        }
+        Destination d = destinations.get(entry.destination);
+        if (d != null) {
+            d.entries.remove(entry);
+            if (d.entries.isEmpty() && !d.inFlight) {
+                destinations.remove(entry.destination);
+            }
+        }
+        try {
+            if (pending.isEmpty()) {
+                closeWriter();
+                Files.deleteIfExists(log.toPath());
+                deliveredRecords = 0;
+                return;
+            }
+            DataOutputStream out = writer();
+            out.writeByte(KIND_DELIVERED);
+            out.writeLong(entry.id);
+            out.flush();
+            if (++deliveredRecords >= COMPACT_THRESHOLD) {
+                compact();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to update outbox, the message may be sent again.", e);
+        }
+    }
+
+    private void write(Entry entry) throws IOException {
+        // Encoded first, a message that cannot be encoded leaves no partial record behind.
+        byte[] record = encode(entry);
+        DataOutputStream out = writer();
+        out.write(record);
+        out.flush();
+        file.getChannel().force(false);
+        entry.stored = true;
+    }
+
+    private static byte[] encode(Entry entry) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(record);
+        writeEntry(out, entry);
+        out.flush();
+        return record.toByteArray();
+    }
+
+    private DataOutputStream writer() throws IOException {
+        if (writer == null) {
+            Files.createDirectories(dir.toPath());
+            file = new FileOutputStream(log, true);
+            writer = new DataOutputStream(new BufferedOutputStream(file));
+        }
+        return writer;
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            try {
+                writer.close();
+            } finally {
+                writer = null;
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log with the pending messages only.
+     */
+    private void compact() throws IOException {
+        closeWriter();
+        File tmp = new File(dir, LOG_NAME + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            for (Entry e : pending.values()) {
+                if (e.stored) {
+                    writeEntry(out, e);
+                }
+            }
+            out.flush();
+            fos.getChannel().force(false);
+        }
+        Files.move(tmp.toPath(), log.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        deliveredRecords = 0;
+    }
+
+    private synchronized void load() {
+        if (!log.isFile()) {
+            return;
+        }
+        Map<Long, Entry> loaded = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)))) {
+            while (true) {
+                int kind = in.read();
+                if (kind < 0) {
+                    break;
+                }
+                long id = in.readLong();
+                if (kind == KIND_MESSAGE) {
+                    long createdAt = in.readLong();
+                    Entry entry = new Entry(id, createdAt, readMessage(in));
+                    entry.stored = true;
+                    loaded.put(id, entry);
+                } else if (kind == KIND_DELIVERED) {
+                    loaded.remove(id);
+                } else {
+                    throw new IOException("Unknown record kind " + kind);
+                }
+                nextId = Math.max(nextId, id + 1);
+            }
+        } catch (EOFException e) {
+            // A record was cut short by a crash, it is dropped by the compaction below.
+            LOGGER.warn("Outbox {} ends with an incomplete record.", log);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to read outbox {}, messages after the failure are lost.", log, e);
+        }
+        for (Entry e : loaded.values()) {
+            add(e);
+        }
+        try {
+            if (pending.isEmpty()) {
+                Files.deleteIfExists(log.toPath());
+            } else {
+                LOGGER.info("Loaded {} messages from outbox.", pending.size());
+                compact();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to compact outbox {}.", log, e);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        out.writeByte(KIND_MESSAGE);
+        out.writeLong(entry.id);
+        out.writeLong(entry.createdAt);
+        writeMessage(out, entry.message);
+    }
+
+    private static void writeMessage(DataOutputStream out, OutboundMessage message) throws IOException {
+        writeString(out, message.getExchangeName());
+        writeString(out, message.getRoutingKey());
+        AMQP.BasicProperties props = message.getProps();
+        out.writeBoolean(props != null);
+        if (props != null) {
+            writeString(out, props.getContentType());
+            writeString(out, props.getContentEncoding());
+            writeString(out, props.getCorrelationId());
+            writeString(out, props.getReplyTo());
+            writeString(out, props.getExpiration());
+            writeString(out, props.getMessageId());
+            writeString(out, props.getType());
+            writeString(out, props.getUserId());
+            writeString(out, props.getAppId());
+            writeString(out, props.getClusterId());
+            out.writeInt(props.getDeliveryMode() != null ? props.getDeliveryMode() : -1);
+            out.writeInt(props.getPriority() != null ? props.getPriority() : -1);
+            out.writeLong(props.getTimestamp() != null ? props.getTimestamp().getTime() : -1);
+            Map<String, Object> headers = props.getHeaders();
+            out.writeBoolean(headers != null);
+            if (headers != null) {
+                writeTable(out, headers);
+            }
+        }
+        writeBytes(out, message.getBody());
+    }
+
+    private static OutboundMessage readMessage(DataInputStream in) throws IOException {
+        String exchangeName = readString(in);
+        String routingKey = readString(in);
+        AMQP.BasicProperties props = null;
+        if (in.readBoolean()) {
+            AMQP.BasicProperties.Builder builder = new AMQP.BasicProperties.Builder()
+                    .contentType(readString(in))
+                    .contentEncoding(readString(in))
+                    .correlationId(readString(in))
+                    .replyTo(readString(in))
+                    .expiration(readString(in))
+                    .messageId(readString(in))
+                    .type(readString(in))
+                    .userId(readString(in))
+                    .appId(readString(in))
+                    .clusterId(readString(in));
+            int deliveryMode = in.readInt();
+            if (deliveryMode >= 0) {
+                builder.deliveryMode(deliveryMode);
+            }
+            int priority = in.readInt();
+            if (priority >= 0) {
+                builder.priority(priority);
+            }
+            long timestamp = in.readLong();
+            if (timestamp >= 0) {
+                builder.timestamp(new Date(timestamp));
+            }
+            if (in.readBoolean()) {
+                builder.headers(readTable(in));
+            }
+            props = builder.build();
+        }
+        byte[] body = readBytes(in);
+        return new OutboundMessage(exchangeName, routingKey, props, body != null ? body : new byte[0]);
+    }
+
+    private static void writeTable(DataOutputStream out, Map<String, Object> table) throws IOException {
+        out.writeInt(table.size());
+        for (Map.Entry<String, Object> e : table.entrySet()) {
+            writeString(out, e.getKey());
+            writeValue(out, e.getValue());
+        }
+    }
+
+    private static Map<String, Object> readTable(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        Map<String, Object> table = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            table.put(readString(in), readValue(in));
+        }
+        return table;
+    }
+
+    /**
+     * Writes a header value prefixed with its AMQP field type.
+     */
+    @SuppressWarnings("unchecked")
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte('V');
+        } else if (value instanceof String) {
+            out.writeByte('S');
+            writeString(out, (String) value);
+        } else if (value instanceof LongString) {
+            out.writeByte('L');
+            writeBytes(out, ((LongString) value).getBytes());
+        } else if (value instanceof Integer) {
+            out.writeByte('I');
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte('l');
+            out.writeLong((Long) value);
+        } else if (value instanceof Short) {
+            out.writeByte('s');
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte('b');
+            out.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte('t');
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            out.writeByte('d');
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte('f');
+            out.writeFloat((Float) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte('D');
+            out.writeInt(((BigDecimal) value).scale());
+            writeBytes(out, ((BigDecimal) value).unscaledValue().toByteArray());
+        } else if (value instanceof Date) {
+            out.writeByte('T');
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof byte[]) {
+            out.writeByte('x');
+            writeBytes(out, (byte[]) value);
+        } else if (value instanceof Map) {
+            out.writeByte('F');
+            writeTable(out, (Map<String, Object>) value);
+        } else if (value instanceof List) {
+            List<Object> list = (List<Object>) value;
+            out.writeByte('A');
+            out.writeInt(list.size());
+            for (Object v : list) {
+                writeValue(out, v);
+            }
+        } else {
+            throw new IOException("Unsupported header value type " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        int type = in.readByte();
+        switch (type) {
+            case 'V':
+                return null;
+            case 'S':
+                return readString(in);
+            case 'L':
+                return LongStringHelper.asLongString(readBytes(in));
+            case 'I':
+                return in.readInt();
+            case 'l':
+                return in.readLong();
+            case 's':
+                return in.readShort();
+            case 'b':
+                return in.readByte();
+            case 't':
+                return in.readBoolean();
+            case 'd':
+                return in.readDouble();
+            case 'f':
+                return in.readFloat();
+            case 'D':
+                int scale = in.readInt();
+                return new BigDecimal(new BigInteger(readBytes(in)), scale);
+            case 'T':
+                return new Date(in.readLong());
+            case 'x':
+                return readBytes(in);
+            case 'F':
+                return readTable(in);
+            case 'A':
+                int count = in.readInt();
+                List<Object> list = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            default:
+                throw new IOException("Unknown header value type " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s != null ? s.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = readBytes(in);
+        return b != null ? new String(b, StandardCharsets.UTF_8) : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] b) throws IOException {
+        out.writeInt(b != null ? b.length : -1);
+        if (b != null) {
+            out.write(b);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < -1) {
+            throw new IOException("Invalid length " + length);
+        }
+        if (length == -1) {
+            return null;
+        }
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return b;
+    }
+
+    /**
+     * A message in the outbox.
+     */
+    private static final class Entry {
+
+        private final long id;
+        private final long createdAt;
+        private final OutboundMessage message;
+        private final String destination;
+        private int attempts;
+        private boolean stored;
+
+        Entry(long id, long createdAt, OutboundMessage message) {
+            this.id = id;
+            this.createdAt = createdAt;
+            this.message = message;
+            this.destination = destinationOf(message);
+        }
+    }
+
+    /**
+     * Pending messages of an exchange and routing key, in order.
+     */
+    private static final class Destination {
+
+        private final String key;
+        private final Deque<Entry> entries = new ArrayDeque<>();
+        private boolean inFlight;
+        private boolean failed;
+        private long backoff;
+        private long nextAttempt;
+
+        Destination(String key) {
+            this.key = key;
+        }
+
+        void backOff(long now) {
+            backoff = backoff == 0 ? INITIAL_BACKOFF_MILLIS : Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+            nextAttempt = now + backoff;
+        }
+
+        void reset() {
+            backoff = 0;
+            nextAttempt = 0;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.publishers;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * A message to be published as part of a batch.
+ *
+ * @see PublishChannel#publishAll(java.util.List)
+ */
+public final class OutboundMessage {
+
+    private final String exchangeName;
+    private final String routingKey;
+    private final AMQP.BasicProperties props;
+    private final byte[] body;
+
+    /**
+     * Create instance.
+     *
+     * Body is not copied, it must not be changed until the message is published.
+     *
+     * @param exchangeName the exchange name.
+     * @param routingKey the routing key.
+     * @param props the properties for AMQP headers.
+     * @param body the message body.
+     */
+    public OutboundMessage(String exchangeName, String routingKey, AMQP.BasicProperties props, byte[] body) {
+        this.exchangeName = exchangeName;
+        this.routingKey = routingKey;
+        this.props = props;
+        this.body = body;
+    }
+
+    /**
+     * Gets exchange name.
+     * @return exchange name.
+     */
+    public String getExchangeName() {
+        return exchangeName;
+    }
+
+    /**
+     * Gets routing key.
+     * @return routing key.
+     */
+    public String getRoutingKey() {
+        return routingKey;
+    }
+
+    /**
+     * Gets properties.
+     * @return properties.
+     */
+    public AMQP.BasicProperties getProps() {
+        return props;
+    }
+
+    /**
+     * Gets body.
+     * @return body.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+}
@@ -0,0 +1,54 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.publishers;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Executor that runs callbacks of asynchronous publishes.
+ *
+ * Publish results are completed on channel and connection threads, which must never be held up
+ * by callers. Callbacks hop to this executor instead. It runs every task on a virtual thread
+ * if the JVM supports them, otherwise on a shared pool of daemon threads. Virtual threads are
+ * looked up reflectively, so the plugin still runs on Java 17, and can be turned off with the
+ * system property {@value #VIRTUAL_THREADS_PROPERTY}.
+ */
+public final class PublishCallbackExecutor {
+
+    private static final Logger LOGGER = Logger.getLogger(PublishCallbackExecutor.class.getName());
+
+    /**
+     * System property that turns virtual threads off if set to false.
+     */
+    public static final String VIRTUAL_THREADS_PROPERTY = "com.ziqni.jenkins.plugins.rabbit.virtualThreads";
+
+    private static final Executor INSTANCE = create();
+
+    private PublishCallbackExecutor() {
+    }
+
+    /**
+     * Gets the executor.
+     *
+     * @return the executor.
+     */
+    public static Executor get() {
+        return INSTANCE;
+    }
+
+    private static Executor create() {
+        if (Boolean.parseBoolean(System.getProperty(VIRTUAL_THREADS_PROPERTY, "true"))) {
+            try {
+                Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (Executor) m.invoke(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.fine("Virtual threads are not available, publish callbacks use platform threads.");
+            }
+        }
+        return Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "RabbitPublishCallback"));
+    }
+}
@@ -2,10 +2,17 @@ package com.ziqni.jenkins.plugins.rabbit.consumer.publishers;
 
 import com.rabbitmq.client.AMQP;
 import com.ziqni.jenkins.plugins.rabbit.consumer.listeners.RMQChannelListener;
+import com.ziqni.jenkins.plugins.rabbit.consumer.utils.Utf8Encoder;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A interface class for controlling RabbitMQ publish channel from externals.
@@ -14,6 +21,11 @@ import java.util.concurrent.Future;
  */
 public interface PublishChannel {
 
+    /**
+     * Default time in millis callers wait for a publish.
+     */
+    long DEFAULT_TIMEOUT_MILLIS = 30000;
+
     /**
      * Publish message.
      *
@@ -33,6 +45,176 @@ public interface PublishChannel {
     Future<PublishResult> publish(String exchangeName, String routingKey,
             AMQP.BasicProperties props, byte[] body);
 
+    /**
+     * Publish message, taking over the body.
+     *
+     * Same as {@link #publish(String, String, AMQP.BasicProperties, byte[])}, but the body is not
+     * copied. The caller must not change it after this call.
+     *
+     * The default implementation calls {@link #publish(String, String, AMQP.BasicProperties, byte[])}.
+     *
+     * @param exchangeName the name of exchange.
+     * @param routingKey the routing key.
+     * @param props the properties of AMQP message.
+     * @param body the message body, owned by the channel from now on.
+     * @return instance of Future class that computes {@link PublishResult}.
+     */
+    default Future<PublishResult> publishOwned(String exchangeName, String routingKey,
+            AMQP.BasicProperties props, byte[] body) {
+        return publish(exchangeName, routingKey, props, body);
+    }
+
+    /**
+     * Publish message, taking over the body.
+     *
+     * The remaining bytes of the buffer are published. The backing array is used as is if the
+     * buffer covers all of it, otherwise the remaining bytes are copied once, since the AMQP
+     * client only publishes whole arrays. The caller must not change the buffer after this call.
+     *
+     * @param exchangeName the name of exchange.
+     * @param routingKey the routing key.
+     * @param props the properties of AMQP message.
+     * @param body the message body, owned by the channel from now on.
+     * @return instance of Future class that computes {@link PublishResult}.
+     */
+    default Future<PublishResult> publishOwned(String exchangeName, String routingKey,
+            AMQP.BasicProperties props, ByteBuffer body) {
+        byte[] bytes;
+        if (body.hasArray() && body.arrayOffset() == 0 && body.position() == 0
+                && body.remaining() == body.array().length) {
+            bytes = body.array();
+        } else {
+            bytes = new byte[body.remaining()];
+            body.duplicate().get(bytes);
+        }
+        return publishOwned(exchangeName, routingKey, props, bytes);
+    }
+
+    /**
+     * Publish text message.
+     *
+     * The text is encoded to UTF-8 straight into the published body, without building a
+     * {@link String} first. The text may be changed once this method returns.
+     *
+     * @param exchangeName the name of exchange.
+     * @param routingKey the routing key.
+     * @param props the properties of AMQP message.
+     * @param text the message text.
+     * @return instance of Future class that computes {@link PublishResult}.
+     */
+    default Future<PublishResult> publishText(String exchangeName, String routingKey,
+            AMQP.BasicProperties props, CharSequence text) {
+        return publishOwned(exchangeName, routingKey, props, Utf8Encoder.encode(text));
+    }
+
+    /**
+     * Publish message asynchronously.
+     *
+     * This is non-blocking method. The stage never fails, an error is reported as unsuccessful
+     * {@link PublishResult}. Dependent stages run on {@link PublishCallbackExecutor}, never on
+     * a channel or connection thread.
+     *
+     * @param exchangeName the name of exchange.
+     * @param routingKey the routing key.
+     * @param props the properties of AMQP message.
+     * @param body the message body.
+     * @return the stage that completes with {@link PublishResult}.
+     */
+    default CompletionStage<PublishResult> publishAsync(String exchangeName, String routingKey,
+            AMQP.BasicProperties props, byte[] body) {
+        Future<PublishResult> future = publish(exchangeName, routingKey, props, body);
+        CompletableFuture<PublishResult> stage;
+        if (future instanceof CompletableFuture) {
+            stage = (CompletableFuture<PublishResult>) future;
+        } else {
+            // Only a plain Future, a callback thread waits for it.
+            stage = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return new PublishResult(false, "Interrupted.", exchangeName);
+                } catch (ExecutionException e) {
+                    return new PublishResult(false, String.valueOf(e.getCause()), exchangeName);
+                }
+            }, PublishCallbackExecutor.get());
+        }
+        return stage.handleAsync((result, e) -> e == null ? result
+                : new PublishResult(false, String.valueOf(e), exchangeName), PublishCallbackExecutor.get());
+    }
+
+    /**
+     * Publish message asynchronously with timeout.
+     *
+     * Same as {@link #publishAsync(String, String, AMQP.BasicProperties, byte[])}, but the stage
+     * completes with an unsuccessful {@link PublishResult} if the message is not published in time.
+     * The message may still be published later.
+     *
+     * @param exchangeName the name of exchange.
+     * @param routingKey the routing key.
+     * @param props the properties of AMQP message.
+     * @param body the message body.
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of timeout.
+     * @return the stage that completes with {@link PublishResult}.
+     */
+    default CompletionStage<PublishResult> publishAsync(String exchangeName, String routingKey,
+            AMQP.BasicProperties props, byte[] body, long timeout, TimeUnit unit) {
+        return publishAsync(exchangeName, routingKey, props, body).toCompletableFuture()
+                .completeOnTimeout(new PublishResult(false, "Timed out waiting for publish.", exchangeName), timeout, unit)
+                .thenApplyAsync(result -> result, PublishCallbackExecutor.get());
+    }
+
+    /**
+     * Publish messages.
+     *
+     * This is non-blocking method. Messages are published in order from other thread,
+     * implementations publish the whole batch in one go and complete the result once
+     * every message of the batch is done.
+     *
+     * The default implementation publishes messages one by one, a thread of
+     * {@link PublishCallbackExecutor} waits for the results.
+     *
+     * @param messages the messages.
+     * @return instance of Future class that computes a {@link PublishResult} per message, in order.
+     */
+    default Future<List<PublishResult>> publishAll(List<OutboundMessage> messages) {
+        List<Future<PublishResult>> futures = new ArrayList<>(messages.size());
+        for (OutboundMessage m : messages) {
+            futures.add(publishOwned(m.getExchangeName(), m.getRoutingKey(), m.getProps(), m.getBody()));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            List<PublishResult> results = new ArrayList<>(futures.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    results.add(new PublishResult(false, "Interrupted.", messages.get(i).getExchangeName()));
+                } catch (ExecutionException e) {
+                    results.add(new PublishResult(false, String.valueOf(e.getCause()), messages.get(i).getExchangeName()));
+                }
+            }
+            return results;
+        }, PublishCallbackExecutor.get());
+    }
+
+    /**
+     * Publish messages in lane.
+     *
+     * Same as {@link #publishAll(List)}, but messages published in the {@link PublishLane#BULK}
+     * lane never delay messages of the {@link PublishLane#CONTROL} lane.
+     *
+     * The default implementation ignores the lane.
+     *
+     * @param messages the messages.
+     * @param lane the lane.
+     * @return instance of Future class that computes a {@link PublishResult} per message, in order.
+     */
+    default Future<List<PublishResult>> publishAll(List<OutboundMessage> messages, PublishLane lane) {
+        return publishAll(messages);
+    }
+
     /**
      * Setup exchange.
      *
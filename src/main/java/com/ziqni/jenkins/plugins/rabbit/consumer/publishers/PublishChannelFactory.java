@@ -19,6 +19,6 @@ public class PublishChannelFactory {
      * @return a instance.
      */
     public static PublishChannel getPublishChannel() {
-        return RabbitManager.getInstance().getPublishChannel();
+        return RabbitManager.getInstance().getPublishChannelPool();
     }
 }
@@ -0,0 +1,19 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.publishers;
+
+/**
+ * A enum for the lanes messages are published in.
+ *
+ * A channel always drains the control lane first. The bulk lane is only served
+ * when the control lane is empty, and may be rate bounded.
+ */
+public enum PublishLane {
+    /**
+     * Small latency-sensitive messages, such as build status and receipts.
+     */
+    CONTROL,
+
+    /**
+     * High-volume messages, such as console lines.
+     */
+    BULK
+}
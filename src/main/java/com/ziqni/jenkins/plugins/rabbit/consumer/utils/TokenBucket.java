@@ -0,0 +1,107 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket that bounds a rate of messages or bytes.
+ *
+ * The bucket is refilled at a constant rate up to its capacity, which is the allowed burst.
+ * {@link #reserve(long)} always takes the tokens, letting the bucket go into debt, and tells
+ * the caller how long to wait so that the rate is kept. This way a request larger than the
+ * capacity is still served, just delayed accordingly.
+ */
+public final class TokenBucket {
+
+    private final long ratePerSecond;
+    private final long capacity;
+    private final LongSupplier nanoClock;
+
+    private double tokens;
+    private long lastNanos;
+
+    /**
+     * Creates instance that is full, with one second of burst.
+     *
+     * @param ratePerSecond the number of tokens added per second, must be positive.
+     */
+    public TokenBucket(long ratePerSecond) {
+        this(ratePerSecond, ratePerSecond, System::nanoTime);
+    }
+
+    /**
+     * Creates instance that is full.
+     *
+     * @param ratePerSecond the number of tokens added per second, must be positive.
+     * @param capacity the maximum number of tokens.
+     * @param nanoClock the clock in nanos.
+     */
+    public TokenBucket(long ratePerSecond, long capacity, LongSupplier nanoClock) {
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Rate must be positive: " + ratePerSecond);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.capacity = Math.max(1, capacity);
+        this.nanoClock = nanoClock;
+        this.tokens = this.capacity;
+        this.lastNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Gets the number of tokens added per second.
+     *
+     * @return the rate.
+     */
+    public long getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    /**
+     * Takes tokens if available.
+     *
+     * @param count the number of tokens.
+     * @return true if taken.
+     */
+    public synchronized boolean tryAcquire(long count) {
+        refill();
+        if (tokens < count) {
+            return false;
+        }
+        tokens -= count;
+        return true;
+    }
+
+    /**
+     * Takes tokens, even if not available.
+     *
+     * @param count the number of tokens.
+     * @return the time in nanos the caller has to wait before using them, 0 if none.
+     */
+    public synchronized long reserve(long count) {
+        refill();
+        tokens -= count;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-tokens * TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+    }
+
+    /**
+     * Gets the number of available tokens, negative if in debt.
+     *
+     * @return the number of tokens.
+     */
+    public synchronized long available() {
+        refill();
+        return (long) Math.floor(tokens);
+    }
+
+    private void refill() {
+        long now = nanoClock.getAsLong();
+        long elapsed = now - lastNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + (double) elapsed * ratePerSecond / TimeUnit.SECONDS.toNanos(1));
+            lastNanos = now;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.utils;
+
+/**
+ * Encodes character sequences to UTF-8 without an intermediate {@link String}.
+ *
+ * The encoded length is counted first, then the characters are written straight into an
+ * array of exactly that size, which is what a publish needs. A {@link StringBuilder} is
+ * encoded with a single allocation, instead of one for {@code toString()} and one for
+ * {@code getBytes()}. Unpaired surrogates are encoded as '?', like {@link String#getBytes}.
+ */
+public final class Utf8Encoder {
+
+    private static final byte REPLACEMENT = '?';
+
+    private Utf8Encoder() {
+    }
+
+    /**
+     * Encodes text.
+     *
+     * @param text the text.
+     * @return the UTF-8 bytes, owned by the caller.
+     */
+    public static byte[] encode(CharSequence text) {
+        int length = text.length();
+        byte[] out = new byte[encodedLength(text)];
+        int pos = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                out[pos++] = (byte) (0xc0 | (c >> 6));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, text.charAt(++i));
+                out[pos++] = (byte) (0xf0 | (cp >> 18));
+                out[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                out[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                out[pos++] = REPLACEMENT;
+            } else {
+                out[pos++] = (byte) (0xe0 | (c >> 12));
+                out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[pos++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Counts the UTF-8 bytes of text.
+     *
+     * @param text the text.
+     * @return the number of bytes.
+     */
+    public static int encodedLength(CharSequence text) {
+        int length = text.length();
+        long bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        if (bytes > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Text is too large to encode: " + bytes + " bytes");
+        }
+        return (int) bytes;
+    }
+}
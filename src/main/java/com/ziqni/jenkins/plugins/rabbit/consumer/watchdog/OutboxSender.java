@@ -0,0 +1,27 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.watchdog;
+
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.BuildEventOutbox;
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+
+/**
+ * Timer that sends messages waiting in the {@link BuildEventOutbox}.
+ * The outbox itself decides whether a retry is due, so this only polls. Sending does not
+ * block, so the shared timer thread is never held up by a broker that is down.
+ */
+@Extension
+public class OutboxSender extends PeriodicWork {
+
+    /* Poll period in millis */
+    private static final long RECURRENCE_TIME = 1000;
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_TIME;
+    }
+
+    @Override
+    protected void doRun() {
+        BuildEventOutbox.get().sendDue();
+    }
+}
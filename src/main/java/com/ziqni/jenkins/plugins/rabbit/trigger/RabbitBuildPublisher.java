@@ -14,9 +14,10 @@ import hudson.model.BuildListener;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.BuildStepDescriptor;
 
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.BuildEventOutbox;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.OutboundMessage;
 import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishResult;
 import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishChannel;
-import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishChannelFactory;
 
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
@@ -30,7 +31,7 @@ import java.util.HashMap;
 import java.io.IOException;
 import java.util.Objects;
 import java.util.logging.Logger;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.nio.charset.StandardCharsets;
 
 import static com.ziqni.jenkins.plugins.rabbit.utils.MachineIdentifier.HEADER_MACHINE_ID;
@@ -185,33 +186,24 @@ public class RabbitBuildPublisher extends Notifier implements RabbitMessageBuild
             builder.contentType(JSON_CONTENT_TYPE);
         }
 
-        // Publish message
-        PublishChannel ch = PublishChannelFactory.getPublishChannel();
-        if (ch != null && ch.isOpen()) {
-            // return value is not needed if you don't need to wait.
-            String routingKeyReady = Utils.injectEnvVars(build, envVars, routingKey);
-            String response = prepareResponse(build, envVars);
-
-            Future<PublishResult> future = ch.publish(
-                    exchangeName,
-                    routingKeyReady,
-                    builder.build(),
-                    response.getBytes(StandardCharsets.UTF_8)
-            );
-
-            // Wait until publish is completed.
-            try {
-                PublishResult result = future.get();
-
-                if (result.isSuccess()) {
-                    listener.getLogger().println(LOG_HEADER + "Success.");
-                } else {
-                    listener.getLogger().println(LOG_HEADER + "Fail - " + result.getMessage());
-                }
-            } catch (Exception e) {
-                LOGGER.warning(e.getMessage());
-                listener.getLogger().println(LOG_HEADER + "Fail due to exception.");
-            }
+        // Publish message through the outbox, it is sent again later if the broker is unreachable.
+        String routingKeyReady = Utils.injectEnvVars(build, envVars, routingKey);
+        String response = prepareResponse(build, envVars);
+        OutboundMessage message = new OutboundMessage(
+                exchangeName,
+                routingKeyReady,
+                builder.build(),
+                response.getBytes(StandardCharsets.UTF_8)
+        );
+
+        // The result goes to the build log, so wait for it, but a stalled broker does not hang the build.
+        PublishResult result = BuildEventOutbox.get().submit(
+                message, PublishChannel.DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS).join();
+
+        if (result.isSuccess()) {
+            listener.getLogger().println(LOG_HEADER + "Success.");
+        } else {
+            listener.getLogger().println(LOG_HEADER + "Fail - " + result.getMessage());
         }
         return true;
     }
@@ -1,9 +1,9 @@
 package com.ziqni.jenkins.plugins.rabbit.trigger;
 
 import com.rabbitmq.client.AMQP;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.BuildEventOutbox;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.OutboundMessage;
 import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishChannel;
-import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishChannelFactory;
-import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishResult;
 import com.ziqni.jenkins.plugins.rabbit.utils.MachineIdentifier;
 import com.ziqni.jenkins.plugins.rabbit.utils.RabbitMessageBuilder;
 import com.ziqni.jenkins.plugins.rabbit.utils.RabbitMessageProperties;
@@ -28,7 +28,7 @@ import org.kohsuke.stapler.DataBoundConstructor;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import static com.ziqni.jenkins.plugins.rabbit.trigger.JobRequestConstraints.CONFIRM_RECEIPT;
@@ -279,26 +279,22 @@ public class RabbitBuildTrigger<T extends Job<?, ?> & ParameterizedJobMixIn.Para
         builder.appId(RabbitBuildTrigger.PLUGIN_APPID);
         builder.correlationId(props.getCorrelationId());
 
-        // Publish message
-        PublishChannel ch = PublishChannelFactory.getPublishChannel();
-        if (ch != null && ch.isOpen()) {
-            // return value is not needed if you don't need to wait.
-            String response = JobInfoMapper.createJobInfoJson(job).toString();
-
-            Future<PublishResult> future = ch.publish(
-                    props.getExchange(),
-                    props.getReplyTo(),
-                    builder.build(),
-                    response.getBytes(StandardCharsets.UTF_8)
-            );
-
-            // Wait until publish is completed.
-            try {
-                PublishResult result = future.get();
-            } catch (Exception e) {
-                LOGGER.warning(e.getMessage());
-            }
-        }
+        // Publish message through the outbox, it is sent again later if the broker is unreachable.
+        String response = JobInfoMapper.createJobInfoJson(job).toString();
+        OutboundMessage message = new OutboundMessage(
+                props.getExchange(),
+                props.getReplyTo(),
+                builder.build(),
+                response.getBytes(StandardCharsets.UTF_8)
+        );
+
+        // Nothing waits for the receipt, failures are only logged.
+        BuildEventOutbox.get().submit(message, PublishChannel.DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .thenAccept(result -> {
+                    if (!result.isSuccess()) {
+                        LOGGER.warning("Failed to confirm receipt for " + job.getFullName() + ": " + result.getMessage());
+                    }
+                });
         return true;
     }
 }
@@ -6,17 +6,28 @@ import com.ziqni.jenkins.plugins.rabbit.trigger.RabbitBuildCause;
 import hudson.EnvVars;
 import hudson.model.Run;
 
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Objects;
 import java.util.Optional;
 
+/**
+ * Properties of a received message.
+ *
+ * A lazy, immutable view over the envelope and the properties of a delivery. The map of
+ * environment variables is only built when something reads it, for example a build that
+ * injects them, and is always built before the instance is persisted with a build.
+ * Instances for the application ids of a fan-out share the delivery, see {@link #withAppId}.
+ */
 public class RabbitMessageProperties {
 
-    private final Map<String, String> vars;
+    private volatile Map<String, String> vars;
 
     private final String queueName;
     private final String appId;
+    private final transient Envelope envelope;
+    private final transient AMQP.BasicProperties properties;
 
     public static final String RABBIT_QUEUE_NAME = "RABBIT_QUEUE_NAME";
     public static final String RABBIT_EXCHANGE = "RABBIT_EXCHANGE";
@@ -46,11 +57,9 @@ public class RabbitMessageProperties {
 
         this.appId = appId;
         this.queueName = Objects.requireNonNull(queueName, "Queue name cannot be null");
-        this.vars = new HashMap<>();
+        this.envelope = envelope;
+        this.properties = properties;
         this.headers = properties.getHeaders();
-
-        // Initialize the vars map with values from properties and envelope
-        populateVars(envelope,properties);
     }
 
 
@@ -58,28 +67,62 @@ public class RabbitMessageProperties {
         this(properties.getAppId(), queueName, envelope, properties);
     }
 
-    private void populateVars(Envelope envelope, AMQP.BasicProperties properties) {
+    /**
+     * Gets a view of the same delivery for another application id.
+     * The envelope and the properties are shared, not copied.
+     *
+     * @param appId the application id.
+     * @return the view, this if the application id is the same.
+     */
+    public RabbitMessageProperties withAppId(String appId) {
+        if (Objects.equals(this.appId, appId)) {
+            return this;
+        }
+        if (envelope == null) {
+            // Loaded with a build, only the variables are left.
+            Map<String, String> copy = new HashMap<>(getVars());
+            copy.remove(RABBIT_APP_ID);
+            if (appId != null) {
+                copy.put(RABBIT_APP_ID, appId);
+            }
+            return new RabbitMessageProperties(appId, queueName, headers, Collections.unmodifiableMap(copy));
+        }
+        return new RabbitMessageProperties(appId, queueName, envelope, properties);
+    }
+
+    private RabbitMessageProperties(String appId, String queueName, Map<String, Object> headers, Map<String, String> vars) {
+        this.appId = appId;
+        this.queueName = queueName;
+        this.envelope = null;
+        this.properties = null;
+        this.headers = headers;
+        this.vars = vars;
+    }
+
+    private Map<String, String> populateVars() {
+        Map<String, String> vars = new HashMap<>();
+
         // Add values from BasicProperties to the vars map
-        putIfNotNull(RABBIT_APP_ID, this.appId);
-
-        putIfNotNull(RABBIT_CONTENT_TYPE, properties.getContentType());
-        putIfNotNull(RABBIT_CONTENT_ENCODING, properties.getContentEncoding());
-        putIfNotNull(RABBIT_DELIVERY_MODE, properties.getDeliveryMode());
-        putIfNotNull(RABBIT_PRIORITY, properties.getPriority());
-        putIfNotNull(RABBIT_CORRELATION_ID, properties.getCorrelationId());
-        putIfNotNull(RABBIT_REPLY_TO, properties.getReplyTo());
-        putIfNotNull(RABBIT_EXPIRATION, properties.getExpiration());
-        putIfNotNull(RABBIT_MESSAGE_ID, properties.getMessageId());
-        putIfNotNull(RABBIT_TIMESTAMP, properties.getTimestamp());
-        putIfNotNull(RABBIT_TYPE, properties.getType());
-        putIfNotNull(RABBIT_USER_ID, properties.getUserId());
-        putIfNotNull(RABBIT_CLUSTER_ID, properties.getClusterId());
+        putIfNotNull(vars, RABBIT_APP_ID, this.appId);
+
+        putIfNotNull(vars, RABBIT_CONTENT_TYPE, properties.getContentType());
+        putIfNotNull(vars, RABBIT_CONTENT_ENCODING, properties.getContentEncoding());
+        putIfNotNull(vars, RABBIT_DELIVERY_MODE, properties.getDeliveryMode());
+        putIfNotNull(vars, RABBIT_PRIORITY, properties.getPriority());
+        putIfNotNull(vars, RABBIT_CORRELATION_ID, properties.getCorrelationId());
+        putIfNotNull(vars, RABBIT_REPLY_TO, properties.getReplyTo());
+        putIfNotNull(vars, RABBIT_EXPIRATION, properties.getExpiration());
+        putIfNotNull(vars, RABBIT_MESSAGE_ID, properties.getMessageId());
+        putIfNotNull(vars, RABBIT_TIMESTAMP, properties.getTimestamp());
+        putIfNotNull(vars, RABBIT_TYPE, properties.getType());
+        putIfNotNull(vars, RABBIT_USER_ID, properties.getUserId());
+        putIfNotNull(vars, RABBIT_CLUSTER_ID, properties.getClusterId());
 
         // Add headers as separate entries with the RABBIT_HEADER_ prefix
-        Optional.ofNullable(properties.getHeaders()).ifPresent(headers -> {
+        Optional.ofNullable(headers).ifPresent(headers -> {
             headers.forEach((key, value) -> {
                 String headerKey = RABBIT_HEADER_ + key.toUpperCase(); // To keep the naming consistent
-                putIfNotNull(headerKey, value);
+                putIfNotNull(vars, headerKey, value);
             });
         });
 
@@ -89,6 +132,17 @@ public class RabbitMessageProperties {
         vars.put(RABBIT_ROUTING_KEY, envelope.getRoutingKey());
         vars.put(RABBIT_DELIVERY_TAG, String.valueOf(envelope.getDeliveryTag()));
         vars.put(RABBIT_REDELIVERED, String.valueOf(envelope.isRedeliver()));
+        return Collections.unmodifiableMap(vars);
+    }
+
+    /**
+     * Builds the variables before the instance is persisted, the delivery is not.
+     *
+     * @return this.
+     */
+    private Object writeReplace() {
+        getVars();
+        return this;
     }
 
     /**
@@ -99,14 +153,25 @@ public class RabbitMessageProperties {
         return appId;
     }
 
-    private void putIfNotNull(String key, Object value) {
+    private static void putIfNotNull(Map<String, String> vars, String key, Object value) {
         if (value != null) {
             vars.put(key, value.toString());
         }
     }
 
+    /**
+     * Gets the environment variables of the message, built on first call.
+     *
+     * @return the unmodifiable variables.
+     */
     public Map<String, String> getVars() {
-        return vars;
+        Map<String, String> v = vars;
+        if (v == null) {
+            // Built at most a few times if raced, the result is the same.
+            v = populateVars();
+            vars = v;
+        }
+        return v;
     }
 
     public String getQueueName() {
@@ -115,7 +180,7 @@ public class RabbitMessageProperties {
 
     public String getValue(String key) {
         // Return the value directly from the vars map if available
-        return vars.get(key.toUpperCase());
+        return getVars().get(key.toUpperCase());
     }
 
     public Map<String, Object> getHeaders() {
@@ -137,18 +202,18 @@ public class RabbitMessageProperties {
     }
 
     public void addAll(EnvVars env) {
-        env.putAll(vars);
+        env.putAll(getVars());
     }
 
     public String getExchange() {
-        return vars.get(RABBIT_EXCHANGE);
+        return envelope != null ? envelope.getExchange() : getVars().get(RABBIT_EXCHANGE);
     }
 
     public String getReplyTo() {
-        return vars.get(RABBIT_REPLY_TO);
+        return properties != null ? properties.getReplyTo() : getVars().get(RABBIT_REPLY_TO);
     }
 
     public String getCorrelationId() {
-        return vars.get(RABBIT_CORRELATION_ID);
+        return properties != null ? properties.getCorrelationId() : getVars().get(RABBIT_CORRELATION_ID);
     }
 }
@@ -61,8 +61,14 @@ public abstract class Utils {
         return out.trim();
     }
 
-    private static void injectBuildStartDate(Run<?,?> run, Map<String, String> envVars){
-        if (envVars.containsKey("BUILD_START_DATE")) {
+    /**
+     * Puts the build start date into environment variables unless already there.
+     *
+     * @param run the run, may be null when the variables were captured earlier.
+     * @param envVars environment variables
+     */
+    public static void injectBuildStartDate(Run<?,?> run, Map<String, String> envVars){
+        if (run == null || envVars.containsKey("BUILD_START_DATE")) {
             return;
         }
 
@@ -0,0 +1,41 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ConsoleLineMatcherTest {
+
+    private static boolean matches(String marker, String line) {
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        return ConsoleLineMatcher.compile(marker).matches(b, b.length);
+    }
+
+    @Test
+    public void testCompileBlank() {
+        assertNull(ConsoleLineMatcher.compile(null));
+        assertNull(ConsoleLineMatcher.compile("  "));
+    }
+
+    @Test
+    public void testMatches() {
+        assertTrue(matches("ERROR:", "ERROR: something failed"));
+        assertTrue(matches("ERROR:", "[main] ERROR: something failed"));
+        assertTrue(matches("failed", "[main] ERROR: something failed"));
+        assertTrue(matches("\u00e9", "caf\u00e9"));
+        assertFalse(matches("ERROR:", "error: something failed"));
+        assertFalse(matches("ERROR:", "ERROR"));
+        assertFalse(matches("ERROR:", ""));
+    }
+
+    @Test
+    public void testMatchesOnlyValidBytes() {
+        // The buffer passed to eol() is reused, bytes beyond len must be ignored
+        byte[] b = "build ok ERROR:".getBytes(StandardCharsets.UTF_8);
+        ConsoleLineMatcher matcher = ConsoleLineMatcher.compile("ERROR:");
+        assertFalse(matcher.matches(b, 8));
+        assertTrue(matcher.matches(b, b.length));
+    }
+}
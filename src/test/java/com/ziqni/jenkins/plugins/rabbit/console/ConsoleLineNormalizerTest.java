@@ -0,0 +1,60 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ConsoleLineNormalizerTest {
+
+    private static String normalize(ConsoleLineNormalizer normalizer, String line) {
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        int len = normalizer.normalize(b, b.length);
+        return new String(normalizer.getLine(), 0, len, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testPlainLineIsNotCopied() {
+        ConsoleLineNormalizer normalizer = new ConsoleLineNormalizer();
+        byte[] b = "caf\u00e9 ok".getBytes(StandardCharsets.UTF_8);
+        assertEquals(b.length, normalizer.normalize(b, b.length));
+        assertSame(b, normalizer.getLine());
+    }
+
+    @Test
+    public void testKeepsTextAfterLastCarriageReturn() {
+        ConsoleLineNormalizer normalizer = new ConsoleLineNormalizer();
+        assertEquals("100% done", normalize(normalizer, "10%\r50%\r100% done"));
+        assertEquals("", normalize(normalizer, "progress\r"));
+    }
+
+    @Test
+    public void testStripsAnsiSequences() {
+        ConsoleLineNormalizer normalizer = new ConsoleLineNormalizer();
+        assertEquals("ERROR: failed", normalize(normalizer, "\u001b[1;31mERROR:\u001b[0m failed"));
+        assertEquals("link", normalize(normalizer, "\u001b]8;;http://example.com\u0007link\u001b]8;;\u001b\\"));
+        assertEquals("abc", normalize(normalizer, "\u001b(Ba\u001b7b\u001b[2Kc"));
+        assertEquals("caf\u00e9", normalize(normalizer, "\u001b[32mcaf\u00e9\u001b[K"));
+        assertEquals("cut", normalize(normalizer, "cut\u001b"));
+    }
+
+    @Test
+    public void testProgressBarWithColors() {
+        ConsoleLineNormalizer normalizer = new ConsoleLineNormalizer();
+        assertEquals("[#####] 100%", normalize(normalizer, "\u001b[32m[#    ]\u001b[0m 20%\r\u001b[32m[#####]\u001b[0m 100%"));
+    }
+
+    @Test
+    public void testBundleCollapsesRepeats() {
+        ConsoleBundle bundle = new ConsoleBundle(10, 1024, 1000);
+        bundle.add("waiting", 7, 1);
+        assertTrue(bundle.repeatLast("waiting"));
+        assertTrue(bundle.repeatLast("waiting"));
+        assertFalse(bundle.repeatLast("done"));
+        bundle.add("done", 4, 4);
+        assertEquals(2, bundle.size());
+        assertEquals("waiting [repeated 2 more times]\ndone", bundle.drain());
+        assertFalse(bundle.repeatLast("done"));
+    }
+}
@@ -0,0 +1,125 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.ziqni.jenkins.plugins.rabbit.console.ConsoleLineRules.*;
+import static org.junit.Assert.*;
+
+public class ConsoleLineRulesTest {
+
+    private static int match(ConsoleLineRules rules, String line) {
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        return rules.match(b, b.length, rules.needsText() ? line : null);
+    }
+
+    @Test
+    public void testEmptyRules() {
+        ConsoleLineRules rules = ConsoleLineRules.compile(null, "", " \n ", null);
+        assertFalse(rules.has(START | STOP | INCLUDE | EXCLUDE));
+        assertFalse(rules.needsText());
+        assertEquals(0, match(rules, "anything"));
+    }
+
+    @Test
+    public void testSingleLiteral() {
+        ConsoleLineRules rules = ConsoleLineRules.compile("BEGIN", null, null, null);
+        assertTrue(rules.has(START));
+        assertFalse(rules.has(STOP));
+        assertEquals(START, match(rules, "--- BEGIN ---"));
+        assertEquals(0, match(rules, "--- begin ---"));
+    }
+
+    @Test
+    public void testManyLiterals() {
+        ConsoleLineRules rules = ConsoleLineRules.compile("BEGIN\nSTART", "END", "ERROR\nWARN", "DEBUG");
+        assertEquals(START, match(rules, "START here"));
+        assertEquals(START, match(rules, "BEGIN here"));
+        assertEquals(STOP, match(rules, "the END"));
+        assertEquals(INCLUDE | EXCLUDE, match(rules, "DEBUG WARN"));
+        assertEquals(START | STOP | INCLUDE, match(rules, "BEGIN ERROR END"));
+        assertEquals(0, match(rules, "INFO all good"));
+    }
+
+    @Test
+    public void testOverlappingLiterals() {
+        ConsoleLineRules rules = ConsoleLineRules.compile("he", null, "she", "hers");
+        assertEquals(START | INCLUDE | EXCLUDE, match(rules, "ushers"));
+        assertEquals(START, match(rules, "the"));
+    }
+
+    @Test
+    public void testNonAsciiLiteral() {
+        ConsoleLineRules rules = ConsoleLineRules.compile("caf\u00e9", "\u00e9t\u00e9", null, null);
+        assertEquals(START | STOP, match(rules, "un caf\u00e9 en \u00e9t\u00e9"));
+        assertEquals(0, match(rules, "cafe"));
+    }
+
+    @Test
+    public void testRegex() {
+        ConsoleLineRules rules = ConsoleLineRules.compile("regex:^\\[(START|BEGIN)\\]", null, "regex:(?i)error", "regex:\\d{3}");
+        assertTrue(rules.needsText());
+        assertEquals(START, match(rules, "[BEGIN] now"));
+        assertEquals(0, match(rules, "now [BEGIN]"));
+        assertEquals(INCLUDE | EXCLUDE, match(rules, "Error 404"));
+    }
+
+    @Test
+    public void testOverlappingRegex() {
+        // Both rules match at the same position, both must be reported
+        ConsoleLineRules rules = ConsoleLineRules.compile("regex:abc", "regex:ab", null, null);
+        assertEquals(START | STOP, match(rules, "xabc"));
+    }
+
+    @Test
+    public void testRegexAndLiterals() {
+        ConsoleLineRules rules = ConsoleLineRules.compile("BEGIN", "regex:END$", null, null);
+        assertEquals(START | STOP, match(rules, "BEGIN END"));
+        assertEquals(START, match(rules, "BEGIN END."));
+    }
+
+    @Test
+    public void testRegexWithBackreference() {
+        // The backreference refers to the rule's own group, not to a group of another rule
+        ConsoleLineRules rules = ConsoleLineRules.compile("regex:(x)y", null, "regex:(a)\\1", null);
+        assertEquals(INCLUDE, match(rules, "aa"));
+        assertEquals(0, match(rules, "ax"));
+        assertEquals(START, match(rules, "xy"));
+    }
+
+    @Test
+    public void testRegexWithSameNamedGroup() {
+        ConsoleLineRules rules = ConsoleLineRules.compile("regex:(?<id>BEGIN)", "regex:(?<id>END)\\k<id>", null, null);
+        assertEquals(START, match(rules, "BEGIN"));
+        assertEquals(STOP, match(rules, "ENDEND"));
+        assertEquals(START, match(rules, "BEGIN END"));
+    }
+
+    @Test
+    public void testRegexWithQuoteAndComment() {
+        ConsoleLineRules rules = ConsoleLineRules.compile("regex:\\Q[x]", "regex:(?x) E N D # the end", "regex:build", null);
+        assertEquals(START | STOP | INCLUDE, match(rules, "[x] build END"));
+        assertEquals(INCLUDE, match(rules, "x build"));
+    }
+
+    @Test
+    public void testNeedsOwnPattern() {
+        assertTrue(ConsoleLineRules.needsOwnPattern("(a)\\1"));
+        assertTrue(ConsoleLineRules.needsOwnPattern("(?<name>a)"));
+        assertTrue(ConsoleLineRules.needsOwnPattern("\\Qa"));
+        assertFalse(ConsoleLineRules.needsOwnPattern("(?<=a)b(?<!c)"));
+        assertFalse(ConsoleLineRules.needsOwnPattern("\\\\1\\d"));
+    }
+
+    @Test(expected = java.util.regex.PatternSyntaxException.class)
+    public void testInvalidRegex() {
+        ConsoleLineRules.compile("regex:[", null, null, null);
+    }
+
+    @Test
+    public void testSplit() {
+        assertEquals(2, ConsoleLineRules.split("a\r\n\n  \nb").size());
+        assertTrue(ConsoleLineRules.split(null).isEmpty());
+    }
+}
@@ -0,0 +1,49 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class ConsolePayloadCodecTest {
+
+    @Test
+    public void testDrainFrame() throws IOException {
+        ConsoleBundle bundle = new ConsoleBundle(0, 0, 0);
+        bundle.add("first", 5, 7);
+        bundle.add("caf\u00e9", 5, 9);
+
+        byte[] frame = ConsolePayloadCodec.drainFrame(bundle);
+        assertTrue(bundle.isEmpty());
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        assertEquals(2, in.readInt());
+        assertEquals(7, in.readInt());
+        assertEquals(5, in.readInt());
+        assertEquals("first", new String(in.readNBytes(5), StandardCharsets.UTF_8));
+        assertEquals(9, in.readInt());
+        assertEquals(5, in.readInt());
+        assertEquals("caf\u00e9", new String(in.readNBytes(5), StandardCharsets.UTF_8));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void testCompressNone() throws IOException {
+        byte[] body = "line".getBytes(StandardCharsets.UTF_8);
+        assertSame(body, ConsolePayloadCodec.compress(body, ConsolePayloadCompression.NONE));
+    }
+
+    @Test
+    public void testCompressGzip() throws IOException {
+        byte[] body = "line\nline\nline\nline\nline\nline".getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = ConsolePayloadCodec.compress(body, ConsolePayloadCompression.GZIP);
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            assertArrayEquals(body, in.readAllBytes());
+        }
+    }
+}
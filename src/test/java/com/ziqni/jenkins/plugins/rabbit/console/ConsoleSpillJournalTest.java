@@ -0,0 +1,86 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import com.ziqni.jenkins.plugins.rabbit.console.ConsoleStreamPublisher.ConsoleMessage;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConsoleSpillJournalTest {
+
+    private static ConsoleMessage message(int lineNumber) {
+        byte[] body = ("line " + lineNumber).getBytes(StandardCharsets.UTF_8);
+        return new ConsoleMessage(body, lineNumber, 1, lineNumber % 2 == 0, body.length);
+    }
+
+    @Test
+    public void testReplayInOrderAcrossSegments() throws IOException {
+        File dir = new File(Files.createTempDirectory("journal").toFile(), ConsoleSpillJournal.DIR_NAME);
+        // Tiny segments so that every message starts a new one
+        ConsoleSpillJournal journal = new ConsoleSpillJournal(dir, 1);
+        assertTrue(journal.isEmpty());
+        assertFalse(dir.exists());
+
+        for (int i = 1; i <= 5; i++) {
+            journal.append(message(i));
+        }
+        assertEquals(5, journal.size());
+
+        // The sink refuses the third message, it must stay at the head
+        List<Integer> replayed = new ArrayList<>();
+        assertEquals(2, journal.replay(m -> {
+            if (m.getLineNumber() == 3) {
+                return false;
+            }
+            replayed.add(m.getLineNumber());
+            return true;
+        }));
+        assertEquals(3, journal.size());
+
+        // Appending while not empty keeps the order
+        journal.append(message(6));
+
+        assertEquals(4, journal.replay(m -> {
+            assertEquals("line " + m.getLineNumber(), new String(m.getBody(), StandardCharsets.UTF_8));
+            assertEquals(m.getLineNumber() % 2 == 0, m.isLastOfSection());
+            replayed.add(m.getLineNumber());
+            return true;
+        }));
+        assertEquals(List.of(1, 2, 3, 4, 5, 6), replayed);
+        assertTrue(journal.isEmpty());
+        assertFalse(dir.exists());
+
+        // The journal can be used again after it was emptied
+        journal.append(message(7));
+        assertEquals(1, journal.replay(m -> true));
+        journal.close();
+        assertFalse(dir.exists());
+    }
+
+    @Test
+    public void testCloseKeepsPendingMessages() throws IOException {
+        File dir = new File(Files.createTempDirectory("journal").toFile(), ConsoleSpillJournal.DIR_NAME);
+        ConsoleSpillJournal journal = new ConsoleSpillJournal(dir, 0);
+        journal.append(message(1));
+        assertEquals(0, journal.replay(m -> false));
+        journal.close();
+        assertTrue(dir.isDirectory());
+        assertEquals(1, dir.list().length);
+    }
+
+    @Test
+    public void testDiscardDeletesPendingMessages() throws IOException {
+        File dir = new File(Files.createTempDirectory("journal").toFile(), ConsoleSpillJournal.DIR_NAME);
+        ConsoleSpillJournal journal = new ConsoleSpillJournal(dir, 0);
+        journal.append(message(1));
+        journal.discard();
+        assertTrue(journal.isEmpty());
+        assertFalse(dir.exists());
+    }
+}
@@ -0,0 +1,203 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import com.ziqni.jenkins.plugins.rabbit.console.ConsoleStreamPublisher.ConsoleMessage;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConsoleStreamPublisherTest {
+
+    private static ConsoleMessage message(int lineNumber) {
+        byte[] body = ("line " + lineNumber).getBytes(StandardCharsets.UTF_8);
+        return new ConsoleMessage(body, lineNumber, 1, false, body.length);
+    }
+
+    private static ConsoleMessage message(int lineNumber, String text) {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        return new ConsoleMessage(body, lineNumber, 1, false, body.length);
+    }
+
+    /**
+     * Publisher with room for two messages whose worker is held in the sink with the first message,
+     * so that every later message goes through the buffer.
+     */
+    private static final class BlockedPublisher {
+
+        private final CountDownLatch sinkEntered = new CountDownLatch(1);
+        private final CountDownLatch releaseSink = new CountDownLatch(1);
+        // Line number and repeats of every published message, in order.
+        private final List<String> published = Collections.synchronizedList(new ArrayList<>());
+        private final ConsoleStreamPublisher publisher;
+
+        BlockedPublisher(ConsoleOverflowPolicy policy, int sampleRate) {
+            this(policy, sampleRate, 0);
+        }
+
+        BlockedPublisher(ConsoleOverflowPolicy policy, int sampleRate, long blockTimeoutMillis) {
+            publisher = new ConsoleStreamPublisher(2, policy, sampleRate, blockTimeoutMillis, batch -> {
+                sinkEntered.countDown();
+                try {
+                    releaseSink.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (ConsoleMessage m : batch) {
+                    published.add(m.getLineNumber() + (m.getRepeats() > 0 ? "x" + m.getRepeats() : ""));
+                }
+            }, null);
+        }
+
+        void start(ConsoleMessage first) throws InterruptedException {
+            publisher.enqueue(first);
+            assertTrue(sinkEntered.await(5, TimeUnit.SECONDS));
+        }
+
+        List<String> finish() {
+            releaseSink.countDown();
+            assertTrue(publisher.close(5000));
+            return published;
+        }
+    }
+
+    private static BlockedPublisher fill(ConsoleOverflowPolicy policy, int sampleRate) throws InterruptedException {
+        BlockedPublisher blocked = new BlockedPublisher(policy, sampleRate);
+        blocked.start(message(1));
+        for (int i = 2; i <= 6; i++) {
+            blocked.publisher.enqueue(message(i));
+        }
+        return blocked;
+    }
+
+    @Test
+    public void testDropOldestKeepsNewestMessages() throws Exception {
+        BlockedPublisher blocked = fill(ConsoleOverflowPolicy.DROP_OLDEST, 0);
+        assertEquals(List.of("1", "5", "6"), blocked.finish());
+        assertEquals(3, blocked.publisher.getDroppedMessages());
+        assertEquals(3, blocked.publisher.getDroppedLines());
+    }
+
+    @Test
+    public void testDropNewestKeepsOldestMessages() throws Exception {
+        BlockedPublisher blocked = fill(ConsoleOverflowPolicy.DROP_NEWEST, 0);
+        assertEquals(List.of("1", "2", "3"), blocked.finish());
+        assertEquals(3, blocked.publisher.getDroppedMessages());
+        assertEquals(3, blocked.publisher.getDroppedLines());
+    }
+
+    @Test
+    public void testSampleKeepsEveryNthOverflowingMessage() throws Exception {
+        // Messages 4, 5 and 6 overflow, only 5 is kept and replaces the oldest one
+        BlockedPublisher blocked = fill(ConsoleOverflowPolicy.SAMPLE, 2);
+        assertEquals(List.of("1", "3", "5"), blocked.finish());
+        assertEquals(3, blocked.publisher.getDroppedMessages());
+    }
+
+    @Test
+    public void testBlockWaitsOnceThenFailsFast() throws Exception {
+        BlockedPublisher blocked = new BlockedPublisher(ConsoleOverflowPolicy.BLOCK, 0, 200);
+        blocked.start(message(1));
+        blocked.publisher.enqueue(message(2));
+        blocked.publisher.enqueue(message(3));
+
+        long start = System.nanoTime();
+        blocked.publisher.enqueue(message(4));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+
+        // The worker is still stuck, the next messages are dropped without waiting
+        start = System.nanoTime();
+        for (int i = 5; i <= 20; i++) {
+            blocked.publisher.enqueue(message(i));
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 200);
+
+        assertEquals(List.of("1", "2", "3"), blocked.finish());
+        assertEquals(17, blocked.publisher.getDroppedMessages());
+    }
+
+    @Test
+    public void testCollapseCountsRepeatsOfLastMessage() throws Exception {
+        BlockedPublisher blocked = new BlockedPublisher(ConsoleOverflowPolicy.COLLAPSE, 0);
+        blocked.start(message(1, "a"));
+        blocked.publisher.enqueue(message(2, "b"));
+        blocked.publisher.enqueue(message(3, "c"));
+        // Repeats of the tail are counted on it instead of queued
+        blocked.publisher.enqueue(message(4, "c"));
+        blocked.publisher.enqueue(message(5, "c"));
+        // A different message replaces the oldest one
+        blocked.publisher.enqueue(message(6, "d"));
+
+        assertEquals(List.of("1", "3x2", "6"), blocked.finish());
+        assertEquals(2, blocked.publisher.getCollapsedMessages());
+        assertEquals(1, blocked.publisher.getDroppedMessages());
+    }
+
+    @Test
+    public void testCloseTaskRunsAfterLastBatchEvenIfCloseTimesOut() throws Exception {
+        CountDownLatch sinkEntered = new CountDownLatch(1);
+        CountDownLatch releaseSink = new CountDownLatch(1);
+        CountDownLatch closeTaskRan = new CountDownLatch(1);
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        ConsoleStreamPublisher publisher = new ConsoleStreamPublisher(4, ConsoleOverflowPolicy.BLOCK, 0, 0, batch -> {
+            sinkEntered.countDown();
+            try {
+                releaseSink.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.add("sink");
+        }, () -> events.add("idle"));
+
+        publisher.enqueue(message(1));
+        assertTrue(sinkEntered.await(5, TimeUnit.SECONDS));
+
+        // The worker is stuck in the sink, close gives up but must not run the task itself
+        assertFalse(publisher.close(50, () -> {
+            events.add("close");
+            closeTaskRan.countDown();
+        }));
+        assertEquals(List.of(), events);
+
+        releaseSink.countDown();
+        assertTrue(closeTaskRan.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("sink", "close"), events);
+    }
+
+    @Test
+    public void testBufferedMessagesAreNotLostWhenCloseTimesOut() throws Exception {
+        BlockedPublisher blocked = new BlockedPublisher(ConsoleOverflowPolicy.DROP_NEWEST, 0);
+        blocked.start(message(1));
+        blocked.publisher.enqueue(message(2));
+        blocked.publisher.enqueue(message(3));
+
+        CountDownLatch closeTaskRan = new CountDownLatch(1);
+        assertFalse(blocked.publisher.close(50, () -> {
+            blocked.published.add("close");
+            closeTaskRan.countDown();
+        }));
+
+        // The buffered messages still reach the sink, before the close task
+        blocked.releaseSink.countDown();
+        assertTrue(closeTaskRan.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("1", "2", "3", "close"), blocked.published);
+        assertEquals(0, blocked.publisher.getDroppedMessages());
+        assertEquals(0, blocked.publisher.getBufferedBytes());
+    }
+
+    @Test
+    public void testCloseTaskRunsWhenIdle() {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        ConsoleStreamPublisher publisher = new ConsoleStreamPublisher(4, ConsoleOverflowPolicy.BLOCK, 0, 0,
+                batch -> events.add("sink"), null);
+
+        assertTrue(publisher.close(5000, () -> events.add("close")));
+        assertEquals(List.of("close"), events);
+    }
+}
@@ -0,0 +1,43 @@
+package com.ziqni.jenkins.plugins.rabbit.console;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RabbitConsoleStreamActionTest {
+
+    @Test
+    public void testBucketOf() {
+        assertEquals(0, RabbitConsoleStreamAction.bucketOf(0));
+        assertEquals(1, RabbitConsoleStreamAction.bucketOf(1));
+        assertEquals(2, RabbitConsoleStreamAction.bucketOf(2));
+        assertEquals(2, RabbitConsoleStreamAction.bucketOf(3));
+        assertEquals(3, RabbitConsoleStreamAction.bucketOf(4));
+        assertEquals(RabbitConsoleStreamAction.LATENCY_BUCKETS - 1, RabbitConsoleStreamAction.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testOnPublished() {
+        RabbitConsoleStreamAction action = new RabbitConsoleStreamAction();
+        action.onPublished(10, 100, 40, 3);
+        action.onPublished(5, 50, 20, 5);
+
+        assertEquals(15, action.getLinesPublished());
+        assertEquals(150, action.getBytesPublished());
+        assertEquals(60, action.getWireBytesPublished());
+        assertEquals(2, action.getMessagesPublished());
+        assertEquals(4, action.getAverageLatencyMillis());
+        assertEquals(5, action.getMaxLatencyMillis());
+
+        List<RabbitConsoleStreamAction.LatencyBucket> histogram = action.getLatencyHistogram();
+        assertEquals(RabbitConsoleStreamAction.LATENCY_BUCKETS, histogram.size());
+        // 3 ms falls in [2, 4), 5 ms in [4, 8)
+        assertEquals(2, histogram.get(2).lowerBoundMillis);
+        assertEquals(4, histogram.get(2).upperBoundMillis);
+        assertEquals(1, histogram.get(2).count);
+        assertEquals(1, histogram.get(3).count);
+        assertEquals(-1, histogram.get(RabbitConsoleStreamAction.LATENCY_BUCKETS - 1).upperBoundMillis);
+    }
+}
@@ -0,0 +1,51 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.channels;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AckTrackerTest {
+
+    @Test
+    void inOrder() {
+        AckTracker tracker = new AckTracker();
+        tracker.delivered(1);
+        tracker.delivered(2);
+
+        assertEquals(1, tracker.completed(1));
+        assertEquals(2, tracker.completed(2));
+        assertEquals(0, tracker.getPending());
+    }
+
+    @Test
+    void watermarkWaitsForGaps() {
+        AckTracker tracker = new AckTracker();
+        for (long tag = 1; tag <= 5; tag++) {
+            tracker.delivered(tag);
+        }
+
+        // 1 is still running, nothing may be acked
+        assertEquals(0, tracker.completed(3));
+        assertEquals(0, tracker.completed(2));
+        assertEquals(0, tracker.getWatermark());
+
+        // Up to 3 is done, 4 is still running
+        assertEquals(3, tracker.completed(1));
+        assertEquals(0, tracker.completed(5));
+        assertEquals(5, tracker.completed(4));
+        assertEquals(5, tracker.getWatermark());
+    }
+
+    @Test
+    void laterDeliveriesAreNotCoveredEarly() {
+        AckTracker tracker = new AckTracker();
+        tracker.delivered(1);
+        assertEquals(1, tracker.completed(1));
+
+        tracker.delivered(2);
+        tracker.delivered(3);
+        assertEquals(0, tracker.completed(3));
+        assertEquals(1, tracker.getWatermark());
+        assertEquals(3, tracker.completed(2));
+    }
+}
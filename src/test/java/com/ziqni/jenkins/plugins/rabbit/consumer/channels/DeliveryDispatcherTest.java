@@ -0,0 +1,75 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.channels;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeliveryDispatcherTest {
+
+    @Test
+    void tasksOfAKeyRunInOrder() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        try {
+            DeliveryDispatcher dispatcher = new DeliveryDispatcher(workers);
+            List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch done = new CountDownLatch(500);
+            for (int i = 0; i < 500; i++) {
+                int n = i;
+                dispatcher.dispatch("consumer", () -> {
+                    seen.add(n);
+                    done.countDown();
+                });
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(IntStream.range(0, 500).boxed().collect(Collectors.toList()), seen);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    @Test
+    void slowKeyDoesNotHoldUpOthers() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            DeliveryDispatcher dispatcher = new DeliveryDispatcher(workers);
+            // Far more blocked tasks than workers, dispatching must still return at once
+            for (int i = 0; i < 5000; i++) {
+                dispatcher.dispatch("slow", () -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+
+            assertEquals(5000, dispatcher.getInFlight());
+
+            CountDownLatch fast = new CountDownLatch(1);
+            dispatcher.dispatch("fast", fast::countDown);
+            assertTrue(fast.await(5, TimeUnit.SECONDS));
+
+            release.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (dispatcher.getInFlight() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, dispatcher.getInFlight());
+        } finally {
+            release.countDown();
+            workers.shutdown();
+        }
+    }
+}
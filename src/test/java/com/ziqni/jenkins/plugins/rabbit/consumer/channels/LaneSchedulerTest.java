@@ -0,0 +1,127 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.channels;
+
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishLane;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LaneSchedulerTest {
+
+    @Test
+    void failingTaskDoesNotStopLaterTasks() throws InterruptedException {
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        try {
+            LaneScheduler scheduler = new LaneScheduler(worker, 0);
+            List<String> ran = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch queued = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(2);
+            scheduler.execute(PublishLane.CONTROL, 1, () -> {
+                try {
+                    queued.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("broken");
+            });
+            scheduler.execute(PublishLane.BULK, 1, () -> {
+                ran.add("bulk");
+                done.countDown();
+            });
+            scheduler.execute(PublishLane.CONTROL, 1, () -> {
+                ran.add("control");
+                done.countDown();
+            });
+            queued.countDown();
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(List.of("control", "bulk"), ran);
+
+            // The worker is released, a new task starts it again
+            CountDownLatch later = new CountDownLatch(1);
+            scheduler.execute(PublishLane.BULK, 1, later::countDown);
+            assertTrue(later.await(5, TimeUnit.SECONDS));
+        } finally {
+            worker.shutdownNow();
+        }
+    }
+
+    @Test
+    void pacedBulkTaskDoesNotHoldUpControlTasks() throws InterruptedException {
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        try {
+            LaneScheduler scheduler = new LaneScheduler(worker, 0);
+            List<String> ran = Collections.synchronizedList(new ArrayList<>());
+            AtomicInteger reserved = new AtomicInteger();
+            CountDownLatch bulkDone = new CountDownLatch(1);
+            long start = System.nanoTime();
+            scheduler.execute(PublishLane.BULK, 1, () -> {
+                ran.add("bulk");
+                bulkDone.countDown();
+            }, () -> {
+                reserved.incrementAndGet();
+                return TimeUnit.MILLISECONDS.toNanos(500);
+            });
+
+            // A control task is counted too, but runs at once while the bulk task waits
+            CountDownLatch controlDone = new CountDownLatch(1);
+            scheduler.execute(PublishLane.CONTROL, 1, () -> {
+                ran.add("control");
+                controlDone.countDown();
+            }, () -> {
+                reserved.incrementAndGet();
+                return TimeUnit.SECONDS.toNanos(10);
+            });
+            assertTrue(controlDone.await(200, TimeUnit.MILLISECONDS));
+
+            assertTrue(bulkDone.await(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(500));
+            assertEquals(List.of("control", "bulk"), ran);
+            assertEquals(2, reserved.get());
+        } finally {
+            worker.shutdownNow();
+        }
+    }
+
+    @Test
+    void taskWithoutRoomStaysQueuedUntilWokenUp() throws InterruptedException {
+        ExecutorService worker = Executors.newSingleThreadExecutor();
+        try {
+            AtomicBoolean bulkRoom = new AtomicBoolean(false);
+            LaneScheduler scheduler = new LaneScheduler(worker, 0,
+                    (lane, messages) -> lane == PublishLane.CONTROL || bulkRoom.get());
+            List<String> ran = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch bulkDone = new CountDownLatch(1);
+            scheduler.execute(PublishLane.BULK, 10, () -> {
+                ran.add("bulk");
+                bulkDone.countDown();
+            });
+
+            // The worker is not parked by the waiting bulk task
+            CountDownLatch controlDone = new CountDownLatch(1);
+            scheduler.execute(PublishLane.CONTROL, 1, () -> {
+                ran.add("control");
+                controlDone.countDown();
+            });
+            assertTrue(controlDone.await(5, TimeUnit.SECONDS));
+            assertFalse(bulkDone.await(100, TimeUnit.MILLISECONDS));
+            assertEquals(1, scheduler.size(PublishLane.BULK));
+
+            bulkRoom.set(true);
+            scheduler.wakeUp();
+            assertTrue(bulkDone.await(5, TimeUnit.SECONDS));
+            assertEquals(List.of("control", "bulk"), ran);
+        } finally {
+            worker.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.channels;
+
+import com.rabbitmq.client.AMQP;
+import com.ziqni.jenkins.plugins.rabbit.consumer.publishers.PublishResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PublishChannelPoolTest {
+
+    @Test
+    void closedStripeFailsInsteadOfMovingKeyToAnotherStripe() throws Exception {
+        OpenChannel open = new OpenChannel();
+        PublishChannelPool pool = new PublishChannelPool();
+        pool.resize(2);
+        pool.setStripe(0, new PublishRMQChannel());
+        pool.setStripe(1, open);
+
+        String closedKey = keyOfStripe(0);
+        PublishResult result = pool.publish("exchange", closedKey, null, new byte[0]).get();
+        assertFalse(result.isSuccess());
+        assertTrue(open.routingKeys.isEmpty());
+
+        String openKey = keyOfStripe(1);
+        assertTrue(pool.publish("exchange", openKey, null, new byte[0]).get().isSuccess());
+        assertEquals(List.of(openKey), open.routingKeys);
+    }
+
+    private static String keyOfStripe(int stripe) {
+        for (int i = 0; ; i++) {
+            String key = "key" + i;
+            if (PublishChannelPool.stripeOf("exchange", key, 2) == stripe) {
+                return key;
+            }
+        }
+    }
+
+    /**
+     * Channel that is open and records the keys published through it.
+     */
+    private static class OpenChannel extends PublishRMQChannel {
+
+        private final List<String> routingKeys = new ArrayList<>();
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public CompletableFuture<PublishResult> publish(String exchangeName, String routingKey,
+                                                        AMQP.BasicProperties props, byte[] body) {
+            routingKeys.add(routingKey);
+            return CompletableFuture.completedFuture(new PublishResult(true, "", exchangeName));
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.publishers;
+
+import com.rabbitmq.client.AMQP;
+import com.ziqni.jenkins.plugins.rabbit.consumer.listeners.RMQChannelListener;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class BuildEventOutboxTest {
+
+    /**
+     * Channel that records published bodies while open.
+     */
+    private static final class FakeChannel implements PublishChannel {
+
+        private volatile boolean open;
+        private volatile String rejectedExchange;
+        private final List<String> published = Collections.synchronizedList(new ArrayList<>());
+        private final List<AMQP.BasicProperties> publishedProps = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public CompletableFuture<PublishResult> publish(String exchangeName, String routingKey,
+                                                        AMQP.BasicProperties props, byte[] body) {
+            if (!open) {
+                return CompletableFuture.completedFuture(new PublishResult(false, "Channel is not opened.", exchangeName));
+            }
+            if (exchangeName.equals(rejectedExchange)) {
+                return CompletableFuture.completedFuture(new PublishResult(false, "NOT_FOUND - no exchange", exchangeName));
+            }
+            published.add(new String(body, StandardCharsets.UTF_8));
+            publishedProps.add(props);
+            return CompletableFuture.completedFuture(new PublishResult(true, "Published", exchangeName));
+        }
+
+        @Override
+        public PublishResult setupExchange(String exchangeName, String queueName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public PublishResult setupExchange(String exchangeName, String queueName, ExchangeType type, String routingKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void addListener(RMQChannelListener listener) {
+        }
+
+        @Override
+        public void removeListener(RMQChannelListener listener) {
+        }
+    }
+
+    private static OutboundMessage message(String exchangeName, String body) {
+        return new OutboundMessage(exchangeName, "key", new AMQP.BasicProperties.Builder().build(),
+                body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static OutboundMessage message(String body) {
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder()
+                .appId("app")
+                .correlationId(body)
+                .headers(Collections.singletonMap("jenkins-url", "http://localhost/"))
+                .build();
+        return new OutboundMessage("exchange", "key", props, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testPendingMessagesSurviveRestart() throws IOException {
+        File dir = new File(Files.createTempDirectory("outbox").toFile(), BuildEventOutbox.DIR_NAME);
+        FakeChannel channel = new FakeChannel();
+        BuildEventOutbox outbox = new BuildEventOutbox(dir, () -> channel);
+
+        // Broker is down, both messages stay in the outbox
+        assertFalse(outbox.submit(message("one"), 1, TimeUnit.SECONDS).join().isSuccess());
+        assertFalse(outbox.submit(message("two"), 1, TimeUnit.SECONDS).join().isSuccess());
+        assertEquals(2, outbox.size());
+        assertTrue(outbox.getNextAttempt() > 0);
+
+        // Restart, the messages are loaded from disk with their properties
+        channel.open = true;
+        BuildEventOutbox restarted = new BuildEventOutbox(dir, () -> channel);
+        assertEquals(2, restarted.size());
+        restarted.sendDue().join();
+        assertEquals(List.of("one", "two"), channel.published);
+        assertEquals(0, restarted.size());
+        assertEquals(0, restarted.getNextAttempt());
+        assertFalse(new File(dir, "outbox.log").exists());
+    }
+
+    @Test
+    public void testPublishedAtOnceWhileOpen() throws IOException {
+        File dir = new File(Files.createTempDirectory("outbox").toFile(), BuildEventOutbox.DIR_NAME);
+        FakeChannel channel = new FakeChannel();
+        channel.open = true;
+        BuildEventOutbox outbox = new BuildEventOutbox(dir, () -> channel);
+
+        assertTrue(outbox.submit(message("one"), 1, TimeUnit.SECONDS).join().isSuccess());
+        assertEquals(0, outbox.size());
+        assertEquals(List.of("one"), channel.published);
+    }
+
+    @Test
+    public void testCompactionDropsDeliveredMessages() throws IOException {
+        File dir = new File(Files.createTempDirectory("outbox").toFile(), BuildEventOutbox.DIR_NAME);
+        FakeChannel channel = new FakeChannel();
+        BuildEventOutbox outbox = new BuildEventOutbox(dir, () -> channel);
+
+        int count = BuildEventOutbox.COMPACT_THRESHOLD + 10;
+        for (int i = 0; i < count; i++) {
+            outbox.submit(message("m" + i), 1, TimeUnit.SECONDS).join();
+        }
+        File log = new File(dir, "outbox.log");
+        long full = log.length();
+
+        // Deliver all but the last message, one batch per call
+        channel.open = true;
+        outbox.submit(message("last"), 1, TimeUnit.SECONDS).join();
+        assertEquals(count + 1, outbox.size());
+
+        BuildEventOutbox restarted = new BuildEventOutbox(dir, () -> channel);
+        restarted.sendDue().join();
+        assertEquals(count + 1 - BuildEventOutbox.MAX_BATCH_MESSAGES, restarted.size());
+        assertTrue(log.length() < full);
+
+        BuildEventOutbox again = new BuildEventOutbox(dir, () -> channel);
+        assertEquals(restarted.size(), again.size());
+    }
+
+    @Test
+    public void testUndeliverableMessageIsParked() throws IOException {
+        File dir = new File(Files.createTempDirectory("outbox").toFile(), BuildEventOutbox.DIR_NAME);
+        FakeChannel channel = new FakeChannel();
+        channel.open = true;
+        channel.rejectedExchange = "deleted";
+        AtomicLong clock = new AtomicLong(1000);
+        BuildEventOutbox outbox = new BuildEventOutbox(dir, () -> channel, clock::get);
+
+        assertFalse(outbox.submit(message("deleted", "poison"), 1, TimeUnit.SECONDS).join().isSuccess());
+        // Other destinations are not held up by it
+        assertTrue(outbox.submit(message("exchange", "one"), 1, TimeUnit.SECONDS).join().isSuccess());
+        assertEquals(1, outbox.size());
+
+        for (int i = 1; i < BuildEventOutbox.MAX_ATTEMPTS; i++) {
+            clock.addAndGet(BuildEventOutbox.MAX_BACKOFF_MILLIS);
+            outbox.sendDue().join();
+        }
+        assertEquals(0, outbox.size());
+        assertEquals(List.of("one"), channel.published);
+        assertTrue(new File(dir, BuildEventOutbox.PARKED_NAME).length() > 0);
+        assertFalse(new File(dir, BuildEventOutbox.LOG_NAME).exists());
+    }
+
+    @Test
+    public void testExpiredMessageIsParked() throws IOException {
+        File dir = new File(Files.createTempDirectory("outbox").toFile(), BuildEventOutbox.DIR_NAME);
+        FakeChannel channel = new FakeChannel();
+        AtomicLong clock = new AtomicLong(1000);
+        BuildEventOutbox outbox = new BuildEventOutbox(dir, () -> channel, clock::get);
+
+        outbox.submit(message("old"), 1, TimeUnit.SECONDS).join();
+        clock.addAndGet(BuildEventOutbox.MAX_AGE_MILLIS + 1);
+        outbox.submit(message("new"), 1, TimeUnit.SECONDS).join();
+
+        channel.open = true;
+        outbox.sendDue().join();
+        assertEquals(List.of("new"), channel.published);
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    public void testHeadersKeepTheirTypes() throws IOException {
+        File dir = new File(Files.createTempDirectory("outbox").toFile(), BuildEventOutbox.DIR_NAME);
+        FakeChannel channel = new FakeChannel();
+        BuildEventOutbox outbox = new BuildEventOutbox(dir, () -> channel);
+
+        Map<String, Object> headers = new LinkedHashMap<>();
+        headers.put("int", 7);
+        headers.put("long", 1L << 40);
+        headers.put("bool", true);
+        headers.put("date", new Date(1234000));
+        headers.put("bytes", new byte[] {1, 2, 3});
+        headers.put("list", List.of("a", 1));
+        headers.put("table", Collections.singletonMap("nested", 2.5d));
+        headers.put("large", String.join("", Collections.nCopies(70000, "x")));
+        AMQP.BasicProperties props = new AMQP.BasicProperties.Builder().headers(headers).build();
+        outbox.submit(new OutboundMessage("exchange", "key", props, new byte[0]), 1, TimeUnit.SECONDS).join();
+
+        channel.open = true;
+        new BuildEventOutbox(dir, () -> channel).sendDue().join();
+        Map<String, Object> replayed = channel.publishedProps.get(0).getHeaders();
+        assertEquals(7, replayed.get("int"));
+        assertEquals(1L << 40, replayed.get("long"));
+        assertEquals(true, replayed.get("bool"));
+        assertEquals(new Date(1234000), replayed.get("date"));
+        assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) replayed.get("bytes"));
+        assertEquals(List.of("a", 1), replayed.get("list"));
+        assertEquals(Collections.singletonMap("nested", 2.5d), replayed.get("table"));
+        assertEquals(70000, ((String) replayed.get("large")).length());
+    }
+}
@@ -0,0 +1,53 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    @Test
+    void burstThenRate() {
+        AtomicLong clock = new AtomicLong();
+        TokenBucket bucket = new TokenBucket(10, 10, clock::get);
+
+        // The full burst is available at once
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bucket.tryAcquire(1));
+        }
+        assertFalse(bucket.tryAcquire(1));
+
+        // One token every 100ms
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(bucket.tryAcquire(1));
+        assertFalse(bucket.tryAcquire(1));
+
+        // Never more than the capacity, however long it was idle
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        assertEquals(10, bucket.available());
+    }
+
+    @Test
+    void reserveGoesIntoDebt() {
+        AtomicLong clock = new AtomicLong();
+        TokenBucket bucket = new TokenBucket(1000, 1000, clock::get);
+
+        assertEquals(0, bucket.reserve(1000));
+        // A request larger than the capacity is served, the caller waits for the debt
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2000), bucket.reserve(2000));
+        assertEquals(-2000, bucket.available());
+        assertFalse(bucket.tryAcquire(1));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(2000));
+        assertEquals(0, bucket.available());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), bucket.reserve(1));
+    }
+
+    @Test
+    void rateMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0));
+    }
+}
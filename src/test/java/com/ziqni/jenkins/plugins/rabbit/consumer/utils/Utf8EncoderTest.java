@@ -0,0 +1,28 @@
+package com.ziqni.jenkins.plugins.rabbit.consumer.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Utf8EncoderTest {
+
+    @Test
+    void sameAsGetBytes() {
+        String[] texts = {
+                "",
+                "plain ascii line",
+                "caf\u00e9 \u00fcber na\u00efve",
+                "\u20ac \u4e2d\u6587 \u0416",
+                "emoji \ud83d\ude80 and more \ud83c\udf89",
+                "unpaired \ud83d high and \ude80 low and trailing \ud83d",
+        };
+        for (String text : texts) {
+            byte[] expected = text.getBytes(StandardCharsets.UTF_8);
+            assertTrue(Arrays.equals(expected, Utf8Encoder.encode(new StringBuilder(text))), text);
+            assertEquals(expected.length, Utf8Encoder.encodedLength(text));
+        }
+    }
+}
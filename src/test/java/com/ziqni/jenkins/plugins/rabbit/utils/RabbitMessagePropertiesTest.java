@@ -86,4 +86,30 @@ public class RabbitMessagePropertiesTest {
         assertEquals("testHeaderValue", messageProperties.getValue(RabbitMessageProperties.RABBIT_HEADER_ + "TESTHEADER"));
         assertNull(messageProperties.getValue("NON_EXISTENT_KEY"));
     }
+
+    @Test
+    public void testWithAppId() {
+        RabbitMessageProperties other = messageProperties.withAppId("otherApp");
+
+        assertEquals("otherApp", other.getAppId());
+        assertEquals("otherApp", other.getValue(RabbitMessageProperties.RABBIT_APP_ID));
+        assertEquals("testApp", messageProperties.getValue(RabbitMessageProperties.RABBIT_APP_ID));
+
+        // The delivery is shared, not copied
+        assertEquals("testExchange", other.getExchange());
+        assertSame(messageProperties.getHeaders(), other.getHeaders());
+        assertSame(messageProperties, messageProperties.withAppId("testApp"));
+    }
+
+    @Test
+    public void testAccessorsWithoutVars() {
+        assertEquals("testExchange", messageProperties.getExchange());
+        assertEquals("testReplyTo", messageProperties.getReplyTo());
+        assertEquals("12345", messageProperties.getCorrelationId());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testVarsAreUnmodifiable() {
+        messageProperties.getVars().put("KEY", "value");
+    }
 }